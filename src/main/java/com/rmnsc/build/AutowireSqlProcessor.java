@@ -0,0 +1,294 @@
+package com.rmnsc.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+
+/**
+ * Checks the fields annotated with @AutowireSql while compiling, and indexes
+ * them for the AutowireSqlBeanPostProcessor. A field fails the build if
+ * <ul>
+ * <li>its name does not follow the convention, <code>&lt;directory&gt;_&lt;file&gt;</code>,</li>
+ * <li>there is no such file in the SQL directory, or it is empty,</li>
+ * <li>it is static or final, or neither a String nor a PreparedSql,</li>
+ * <li>it is a PreparedSql and its parameters are malformed or positional.</li>
+ * </ul>
+ * The index is generated as com.rmnsc.persistence.GeneratedAutowireSqlIndex,
+ * with the SQL of every file as a constant.
+ *
+ * The SQL directory is the option rmnsc.sqlDir, e.g.
+ * -Armnsc.sqlDir=src/main/webapp/WEB-INF/sql. The index only contains what is
+ * compiled in one run, so the module has to be compiled as a whole, as Maven
+ * does.
+ *
+ * @author Thomas
+ */
+@SupportedAnnotationTypes(AutowireSqlProcessor.AUTOWIRE_SQL)
+@SupportedOptions(AutowireSqlProcessor.SQL_DIR_OPTION)
+public class AutowireSqlProcessor extends AbstractProcessor {
+
+    static final String AUTOWIRE_SQL = "com.rmnsc.persistence.AutowireSql";
+    static final String SQL_DIR_OPTION = "rmnsc.sqlDir";
+
+    private static final String PREPARED_SQL = "com.rmnsc.persistence.PreparedSql";
+    private static final String PREPARE_THRESHOLD = "prepareThreshold";
+    private static final String INDEX_PACKAGE = "com.rmnsc.persistence";
+    private static final String INDEX_SIMPLE_NAME = "GeneratedAutowireSqlIndex";
+    private static final String SQL_FILE_EXTENSION = ".sql";
+    private static final char DIR_SEPARATOR = '_';
+    // Of a string constant in a class file, in modified UTF-8.
+    private static final int MAX_CONSTANT_BYTES = 65535;
+
+    /**
+     * An annotated field that passed the checks.
+     */
+    private static final class IndexedField {
+
+        private final String className;
+        private final String fieldName;
+        private final int prepareThreshold;
+
+        IndexedField(String className, String fieldName, int prepareThreshold) {
+            this.className = className;
+            this.fieldName = fieldName;
+            this.prepareThreshold = prepareThreshold;
+        }
+    }
+
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (annotations.isEmpty()) {
+            return false;
+        }
+        TypeElement autowireSql = annotations.iterator().next();
+        Set<? extends Element> elements = roundEnv.getElementsAnnotatedWith(autowireSql);
+        if (generated) {
+            for (Element element : elements) {
+                error(element, "@AutowireSql is not supported in generated sources");
+            }
+            return true;
+        }
+        String sqlDirName = processingEnv.getOptions().get(SQL_DIR_OPTION);
+        if (sqlDirName == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "missing -A" + SQL_DIR_OPTION + "=<directory of the SQL files>");
+            return true;
+        }
+        File sqlDir = new File(sqlDirName);
+
+        List<IndexedField> fields = new ArrayList<>();
+        // By field name, which is the file name. Sorted, so the index is the same on every build.
+        Map<String, String> sqlByName = new TreeMap<>();
+        Set<Element> originatingElements = new LinkedHashSet<>();
+        boolean valid = true;
+        for (Element element : elements) {
+            VariableElement field = (VariableElement) element;
+            String fieldName = field.getSimpleName().toString();
+            boolean prepared = isType(field.asType(), PREPARED_SQL);
+            if (!prepared && !isType(field.asType(), String.class.getName())) {
+                valid = error(field, "@AutowireSql field must be a String or a PreparedSql");
+                continue;
+            }
+            if (field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.FINAL)) {
+                valid = error(field, "@AutowireSql field must be neither static nor final");
+                continue;
+            }
+            int dirEndIdx = fieldName.indexOf(DIR_SEPARATOR);
+            if (dirEndIdx <= 0 || dirEndIdx == fieldName.length() - 1) {
+                valid = error(field, "@AutowireSql field does not conform to naming convention: <directory>"
+                        + DIR_SEPARATOR + "<filename>");
+                continue;
+            }
+            File sqlFile = new File(new File(sqlDir, fieldName.substring(0, dirEndIdx)),
+                    fieldName.substring(dirEndIdx + 1) + SQL_FILE_EXTENSION);
+            String sql;
+            try {
+                sql = new String(Files.readAllBytes(sqlFile.toPath()), StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                valid = error(field, "unable to read the SQL of @AutowireSql field: " + sqlFile + ", " + ex);
+                continue;
+            }
+            String problem = checkSql(sql, prepared);
+            if (problem != null) {
+                valid = error(field, problem + ": " + sqlFile);
+                continue;
+            }
+            int prepareThreshold = getPrepareThreshold(field);
+            if (prepareThreshold < -1) {
+                valid = error(field, "prepareThreshold must not be negative, unless the default");
+                continue;
+            }
+            TypeElement declaringClass = (TypeElement) field.getEnclosingElement();
+            fields.add(new IndexedField(processingEnv.getElementUtils().getBinaryName(declaringClass).toString(),
+                    fieldName, prepareThreshold));
+            sqlByName.put(fieldName, sql);
+            originatingElements.add(declaringClass);
+        }
+        if (!valid) {
+            return true;
+        }
+        try {
+            writeIndex(fields, sqlByName, originatingElements);
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "failed to write " + INDEX_PACKAGE + '.' + INDEX_SIMPLE_NAME + ": " + ex);
+        }
+        generated = true;
+        return true;
+    }
+
+    private boolean isType(TypeMirror type, String className) {
+        TypeElement typeElement = processingEnv.getElementUtils().getTypeElement(className);
+        return typeElement != null && processingEnv.getTypeUtils().isSameType(type, typeElement.asType());
+    }
+
+    /**
+     * Parses it like PreparedSql does at runtime.
+     *
+     * @return what is wrong with the SQL, null if nothing.
+     */
+    private static String checkSql(String sql, boolean prepared) {
+        if (sql.trim().isEmpty()) {
+            return "SQL file of @AutowireSql field is empty";
+        }
+        if (modifiedUtf8Length(sql) > MAX_CONSTANT_BYTES) {
+            return "SQL file of @AutowireSql field is too large, at most " + MAX_CONSTANT_BYTES + " bytes";
+        }
+        if (!prepared) {
+            return null;
+        }
+        ParsedSql parsedSql;
+        try {
+            parsedSql = NamedParameterUtils.parseSqlStatement(sql);
+        } catch (InvalidDataAccessApiUsageException ex) {
+            return "malformed parameter in SQL of @AutowireSql field, " + ex.getMessage();
+        }
+        MapSqlParameterSource noValues = new MapSqlParameterSource();
+        // One type for every parameter, one SqlParameter for every named one.
+        int positionalCount = NamedParameterUtils.buildSqlTypeArray(parsedSql, noValues).length
+                - NamedParameterUtils.buildSqlParameterList(parsedSql, noValues).size();
+        if (positionalCount > 0) {
+            return "positional parameter (?) in SQL of PreparedSql field, only named ones are supported";
+        }
+        return null;
+    }
+
+    private static int modifiedUtf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 1 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    /**
+     * @return the prepareThreshold of the annotation, or its default.
+     */
+    private int getPrepareThreshold(VariableElement field) {
+        for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+            if (!((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+                    .contentEquals(AUTOWIRE_SQL)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : processingEnv.getElementUtils().getElementValuesWithDefaults(annotation).entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals(PREPARE_THRESHOLD)) {
+                    return (Integer) entry.getValue().getValue();
+                }
+            }
+        }
+        throw new IllegalStateException("no " + PREPARE_THRESHOLD + " on " + field);
+    }
+
+    private void writeIndex(List<IndexedField> fields, Map<String, String> sqlByName,
+            Set<Element> originatingElements) throws IOException {
+        try (Writer writer = processingEnv.getFiler().createSourceFile(INDEX_PACKAGE + '.' + INDEX_SIMPLE_NAME,
+                originatingElements.toArray(new Element[originatingElements.size()])).openWriter()) {
+            writer.write("package " + INDEX_PACKAGE + ";\n\n");
+            writer.write("/**\n * Generated by " + AutowireSqlProcessor.class.getName()
+                    + " from the fields annotated with @AutowireSql. Do not edit.\n */\n");
+            writer.write("final class " + INDEX_SIMPLE_NAME + " extends AutowireSqlIndex {\n\n");
+            for (Map.Entry<String, String> entry : sqlByName.entrySet()) {
+                writer.write("    static final String " + entry.getKey() + " = " + toLiteral(entry.getValue()) + ";\n");
+            }
+            writer.write("\n    " + INDEX_SIMPLE_NAME + "() {\n");
+            for (IndexedField field : fields) {
+                writer.write("        add(" + toLiteral(field.className) + ", " + toLiteral(field.fieldName) + ", "
+                        + field.prepareThreshold + ", " + field.fieldName + ");\n");
+            }
+            writer.write("    }\n}\n");
+        }
+    }
+
+    private static String toLiteral(String value) {
+        StringBuilder literal = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        literal.append(String.format("\\%03o", (int) c));
+                    } else if (c >= 0x7f) {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private boolean error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+}
@@ -1,5 +1,8 @@
 package com.rmnsc.config;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
 
@@ -12,6 +15,33 @@ public final class AppConfig {
     public static final String DEVELOPMENT_PROFILE = "dev";
     public static final String PRODUCTION_PROFILE = "prod";
 
+    /**
+     * Host and port of a database server.
+     */
+    public static final class JdbcEndpoint {
+
+        private final String host;
+        private final int port;
+
+        public JdbcEndpoint(String host, int port) {
+            this.host = Objects.requireNonNull(host, "host must not be null");
+            this.port = port;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ':' + port;
+        }
+    }
+
     private static final String JDBC_HOST_PROP = "rmnsc.jdbc.host";
     private static final String JDBC_PORT_PROP = "rmnsc.jdbc.port";
     private static final String JDBC_DBNAME_PROP = "rmnsc.jdbc.dbname";
@@ -22,6 +52,50 @@ public final class AppConfig {
 
     private static final String RESOURCES_VERSION_PROP = "rmnsc.resources.version";
 
+    private static final String BOOTSTRAP_PROP = "rmnsc.bootstrap";
+
+    private static final String WARMUP_ENABLED_PROP = "rmnsc.warmup.enabled";
+    private static final String WARMUP_CONNECTIONS_PROP = "rmnsc.warmup.connections";
+    private static final String WARMUP_ITERATIONS_PROP = "rmnsc.warmup.iterations";
+    private static final String WARMUP_PATHS_PROP = "rmnsc.warmup.paths";
+
+    private static final String JDBC_COPY_THRESHOLD_PROP = "rmnsc.jdbc.copyThreshold";
+    private static final String JDBC_FETCH_SIZE_PROP = "rmnsc.jdbc.fetchSize";
+    private static final String JDBC_PREPARE_THRESHOLD_PROP = "rmnsc.jdbc.prepareThreshold";
+    private static final String JDBC_REPLICAS_PROP = "rmnsc.jdbc.replicas";
+    private static final String JDBC_READ_YOUR_WRITES_PROP = "rmnsc.jdbc.readYourWritesMillis";
+    private static final String JDBC_MIGRATE_PROP = "rmnsc.jdbc.migrate";
+    private static final String JDBC_SLOW_STATEMENT_PROP = "rmnsc.jdbc.slowStatementMillis";
+    private static final String JDBC_POOL_MIN_SIZE_PROP = "rmnsc.jdbc.pool.minSize";
+    private static final String JDBC_POOL_MAX_SIZE_PROP = "rmnsc.jdbc.pool.maxSize";
+    private static final String JDBC_POOL_IDLE_TIMEOUT_PROP = "rmnsc.jdbc.pool.idleTimeoutMillis";
+    private static final String JDBC_POOL_ADAPTIVE_PROP = "rmnsc.jdbc.pool.adaptive";
+    private static final String JDBC_POOL_ADAPTIVE_INTERVAL_PROP = "rmnsc.jdbc.pool.adaptive.intervalMillis";
+    private static final String JDBC_POOL_ADAPTIVE_TARGET_WAIT_PROP = "rmnsc.jdbc.pool.adaptive.targetWaitMillis";
+    private static final String JDBC_POOL_ADAPTIVE_NIGHT_PROP = "rmnsc.jdbc.pool.adaptive.night";
+    private static final String JDBC_POOL_ADAPTIVE_NIGHT_MIN_SIZE_PROP = "rmnsc.jdbc.pool.adaptive.nightMinSize";
+    private static final String JDBC_POOL_JMX_PROP = "rmnsc.jdbc.pool.jmx";
+    private static final String JDBC_POOL_ALERT_ACQUIRE_PROP = "rmnsc.jdbc.pool.alert.acquireMillis";
+    private static final String JDBC_POOL_ALERT_PENDING_PROP = "rmnsc.jdbc.pool.alert.pending";
+    private static final String JDBC_POOL_ALERT_HOLD_PROP = "rmnsc.jdbc.pool.alert.holdMillis";
+
+    private static final String TODO_STORE_PROP = "rmnsc.todo.store";
+    private static final String TODO_MEMORY_SNAPSHOT_PROP = "rmnsc.todo.memory.snapshot";
+
+    private static final String TODO_PAGE_SIZE_PROP = "rmnsc.todo.pageSize";
+    private static final String TODO_SEARCH_MAX_RESULTS_PROP = "rmnsc.todo.search.maxResults";
+
+    private static final String TODO_CACHE_ENABLED_PROP = "rmnsc.todo.cache.enabled";
+    private static final String TODO_CACHE_MAX_ENTRIES_PROP = "rmnsc.todo.cache.maxEntries";
+    private static final String TODO_CACHE_TTL_PROP = "rmnsc.todo.cache.ttlMillis";
+    private static final String TODO_CACHE_LISTEN_PROP = "rmnsc.todo.cache.listen";
+    private static final String TODO_CACHE_POLL_PROP = "rmnsc.todo.cache.pollMillis";
+
+    private static final String WRITEBEHIND_ENABLED_PROP = "rmnsc.writebehind.enabled";
+    private static final String WRITEBEHIND_BATCH_SIZE_PROP = "rmnsc.writebehind.batchSize";
+    private static final String WRITEBEHIND_MAX_DELAY_PROP = "rmnsc.writebehind.maxDelayMillis";
+    private static final String WRITEBEHIND_CAPACITY_PROP = "rmnsc.writebehind.capacity";
+
     private final String jdbcHost;
     private final int jdbcPort;
     private final String jdbcDbName;
@@ -30,6 +104,44 @@ public final class AppConfig {
     private final String activeProfile;
     private final String internalResourceRoot;
     private final String resourceRoot;
+    private final boolean parallelBootstrap;
+    private final boolean warmUpEnabled;
+    private final int warmUpConnections;
+    private final int warmUpIterations;
+    private final List<String> warmUpPaths;
+    private final int jdbcCopyThreshold;
+    private final int jdbcFetchSize;
+    private final int jdbcPrepareThreshold;
+    private final List<JdbcEndpoint> jdbcReplicas;
+    private final int jdbcReadYourWritesMillis;
+    private final boolean jdbcMigrate;
+    private final int jdbcSlowStatementMillis;
+    private final int jdbcPoolMinSize;
+    private final int jdbcPoolMaxSize;
+    private final int jdbcPoolIdleTimeoutMillis;
+    private final boolean jdbcPoolAdaptive;
+    private final int jdbcPoolAdaptiveIntervalMillis;
+    private final int jdbcPoolAdaptiveTargetWaitMillis;
+    private final int jdbcPoolNightStartHour;
+    private final int jdbcPoolNightEndHour;
+    private final int jdbcPoolNightMinSize;
+    private final boolean jdbcPoolJmxEnabled;
+    private final int jdbcPoolAlertAcquireMillis;
+    private final int jdbcPoolAlertPending;
+    private final int jdbcPoolAlertHoldMillis;
+    private final boolean todoStoreInMemory;
+    private final String todoMemorySnapshot;
+    private final int todoPageSize;
+    private final int todoSearchMaxResults;
+    private final boolean todoCacheEnabled;
+    private final int todoCacheMaxEntries;
+    private final int todoCacheTtlMillis;
+    private final boolean todoCacheListen;
+    private final int todoCachePollMillis;
+    private final boolean writeBehindEnabled;
+    private final int writeBehindBatchSize;
+    private final int writeBehindMaxDelayMillis;
+    private final int writeBehindCapacity;
 
     public AppConfig(Properties props) {
         this.jdbcHost = Objects.requireNonNull(props.getProperty(JDBC_HOST_PROP), JDBC_PORT_PROP);
@@ -72,6 +184,128 @@ public final class AppConfig {
         } else {
             this.resourceRoot = "/static-" + resourcesVersion + "/";
         }
+
+        String bootstrap = props.getProperty(BOOTSTRAP_PROP, "serial").trim();
+        switch (bootstrap) {
+            case "parallel":
+                this.parallelBootstrap = true;
+                break;
+            case "serial":
+                this.parallelBootstrap = false;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown " + BOOTSTRAP_PROP + ": " + bootstrap
+                        + ", must be one of (parallel, serial)");
+        }
+
+        this.warmUpEnabled = parseBoolean(props, WARMUP_ENABLED_PROP, true);
+        this.warmUpConnections = parseNonNegativeInt(props, WARMUP_CONNECTIONS_PROP, 10);
+        this.warmUpIterations = parseNonNegativeInt(props, WARMUP_ITERATIONS_PROP, 20);
+        List<String> paths = new ArrayList<>();
+        for (String path : props.getProperty(WARMUP_PATHS_PROP, "/").split(",")) {
+            if (!path.trim().isEmpty()) {
+                paths.add(path.trim());
+            }
+        }
+        this.warmUpPaths = Collections.unmodifiableList(paths);
+
+        this.jdbcCopyThreshold = parseNonNegativeInt(props, JDBC_COPY_THRESHOLD_PROP, 1000);
+        this.jdbcFetchSize = parsePositiveInt(props, JDBC_FETCH_SIZE_PROP, 500);
+        // The default of the driver.
+        this.jdbcPrepareThreshold = parseNonNegativeInt(props, JDBC_PREPARE_THRESHOLD_PROP, 5);
+
+        List<JdbcEndpoint> replicas = new ArrayList<>();
+        for (String replica : props.getProperty(JDBC_REPLICAS_PROP, "").split(",")) {
+            replica = replica.trim();
+            if (replica.isEmpty()) {
+                continue;
+            }
+            int portIdx = replica.lastIndexOf(':');
+            if (portIdx == -1) {
+                replicas.add(new JdbcEndpoint(replica, this.jdbcPort));
+                continue;
+            }
+            int replicaPort;
+            try {
+                replicaPort = Integer.parseInt(replica.substring(portIdx + 1));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(JDBC_REPLICAS_PROP + " malformed: " + replica, ex);
+            }
+            if (portIdx == 0 || !isPortValid(replicaPort)) {
+                throw new IllegalArgumentException(JDBC_REPLICAS_PROP + " malformed: " + replica);
+            }
+            replicas.add(new JdbcEndpoint(replica.substring(0, portIdx), replicaPort));
+        }
+        this.jdbcReplicas = Collections.unmodifiableList(replicas);
+        this.jdbcReadYourWritesMillis = parseNonNegativeInt(props, JDBC_READ_YOUR_WRITES_PROP, 5000);
+        this.jdbcMigrate = parseBoolean(props, JDBC_MIGRATE_PROP, true);
+        this.jdbcSlowStatementMillis = parseNonNegativeInt(props, JDBC_SLOW_STATEMENT_PROP, 200);
+        this.jdbcPoolMinSize = parseNonNegativeInt(props, JDBC_POOL_MIN_SIZE_PROP, 5);
+        this.jdbcPoolMaxSize = parsePositiveInt(props, JDBC_POOL_MAX_SIZE_PROP, 50);
+        if (jdbcPoolMinSize > jdbcPoolMaxSize) {
+            throw new IllegalArgumentException(JDBC_POOL_MIN_SIZE_PROP + " must not exceed "
+                    + JDBC_POOL_MAX_SIZE_PROP + ": " + jdbcPoolMinSize + " > " + jdbcPoolMaxSize);
+        }
+        // The default of Hikari.
+        this.jdbcPoolIdleTimeoutMillis = parseNonNegativeInt(props, JDBC_POOL_IDLE_TIMEOUT_PROP, 600000);
+        this.jdbcPoolAdaptive = parseBoolean(props, JDBC_POOL_ADAPTIVE_PROP, false);
+        this.jdbcPoolAdaptiveIntervalMillis = parsePositiveInt(props, JDBC_POOL_ADAPTIVE_INTERVAL_PROP, 10000);
+        this.jdbcPoolAdaptiveTargetWaitMillis = parseNonNegativeInt(props, JDBC_POOL_ADAPTIVE_TARGET_WAIT_PROP, 5);
+        String night = props.getProperty(JDBC_POOL_ADAPTIVE_NIGHT_PROP, "").trim();
+        if (night.isEmpty()) {
+            this.jdbcPoolNightStartHour = -1;
+            this.jdbcPoolNightEndHour = -1;
+        } else {
+            String[] hours = night.split("-");
+            int startHour;
+            int endHour;
+            try {
+                startHour = hours.length == 2 ? Integer.parseInt(hours[0].trim()) : -1;
+                endHour = hours.length == 2 ? Integer.parseInt(hours[1].trim()) : -1;
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(JDBC_POOL_ADAPTIVE_NIGHT_PROP + " malformed: " + night, ex);
+            }
+            if (!isHourValid(startHour) || !isHourValid(endHour) || startHour == endHour) {
+                throw new IllegalArgumentException(JDBC_POOL_ADAPTIVE_NIGHT_PROP + " malformed: " + night
+                        + ", must be <first hour>-<first hour after>, e.g. 1-6");
+            }
+            this.jdbcPoolNightStartHour = startHour;
+            this.jdbcPoolNightEndHour = endHour;
+        }
+        this.jdbcPoolNightMinSize = parseNonNegativeInt(props, JDBC_POOL_ADAPTIVE_NIGHT_MIN_SIZE_PROP, 1);
+        this.jdbcPoolJmxEnabled = parseBoolean(props, JDBC_POOL_JMX_PROP, false);
+        this.jdbcPoolAlertAcquireMillis = parseNonNegativeInt(props, JDBC_POOL_ALERT_ACQUIRE_PROP, 100);
+        this.jdbcPoolAlertPending = parseNonNegativeInt(props, JDBC_POOL_ALERT_PENDING_PROP, 5);
+        this.jdbcPoolAlertHoldMillis = parseNonNegativeInt(props, JDBC_POOL_ALERT_HOLD_PROP, 2000);
+
+        String store = props.getProperty(TODO_STORE_PROP, "jdbc").trim();
+        switch (store) {
+            case "jdbc":
+                this.todoStoreInMemory = false;
+                break;
+            case "memory":
+                this.todoStoreInMemory = true;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown " + TODO_STORE_PROP + ": " + store
+                        + ", must be one of (jdbc, memory)");
+        }
+        String snapshot = props.getProperty(TODO_MEMORY_SNAPSHOT_PROP, "").trim();
+        this.todoMemorySnapshot = snapshot.isEmpty() ? null : snapshot;
+
+        this.todoPageSize = parsePositiveInt(props, TODO_PAGE_SIZE_PROP, 50);
+        this.todoSearchMaxResults = parsePositiveInt(props, TODO_SEARCH_MAX_RESULTS_PROP, 20);
+
+        this.todoCacheEnabled = parseBoolean(props, TODO_CACHE_ENABLED_PROP, false);
+        this.todoCacheMaxEntries = parsePositiveInt(props, TODO_CACHE_MAX_ENTRIES_PROP, 1000);
+        this.todoCacheTtlMillis = parseNonNegativeInt(props, TODO_CACHE_TTL_PROP, 10000);
+        this.todoCacheListen = parseBoolean(props, TODO_CACHE_LISTEN_PROP, true);
+        this.todoCachePollMillis = parsePositiveInt(props, TODO_CACHE_POLL_PROP, 50);
+
+        this.writeBehindEnabled = parseBoolean(props, WRITEBEHIND_ENABLED_PROP, false);
+        this.writeBehindBatchSize = parsePositiveInt(props, WRITEBEHIND_BATCH_SIZE_PROP, 100);
+        this.writeBehindMaxDelayMillis = parseNonNegativeInt(props, WRITEBEHIND_MAX_DELAY_PROP, 5);
+        this.writeBehindCapacity = parsePositiveInt(props, WRITEBEHIND_CAPACITY_PROP, 1000);
     }
 
     public String getActiveProfile() {
@@ -121,8 +355,405 @@ public final class AppConfig {
         return jdbcPassword;
     }
 
+    /**
+     * Whether to create the connection pool, the message source and the
+     * template engine in parallel, and all other beans lazily.
+     *
+     * @return
+     */
+    public boolean isParallelBootstrap() {
+        return parallelBootstrap;
+    }
+
+    /**
+     * Whether to warm up the application before it reports to be ready.
+     *
+     * @return
+     */
+    public boolean isWarmUpEnabled() {
+        return warmUpEnabled;
+    }
+
+    /**
+     * How many pool connections to open and use during warm-up.
+     *
+     * @return
+     */
+    public int getWarmUpConnections() {
+        return warmUpConnections;
+    }
+
+    /**
+     * How often each warm-up path is requested in each locale.
+     *
+     * @return
+     */
+    public int getWarmUpIterations() {
+        return warmUpIterations;
+    }
+
+    /**
+     * Paths requested during warm-up. Must be safe to request, GET only.
+     *
+     * @return
+     */
+    public List<String> getWarmUpPaths() {
+        return warmUpPaths;
+    }
+
+    /**
+     * From how many items on bulk inserts use COPY instead of a JDBC batch.
+     *
+     * @return
+     */
+    public int getJdbcCopyThreshold() {
+        return jdbcCopyThreshold;
+    }
+
+    /**
+     * How many rows streaming reads fetch per round trip.
+     *
+     * @return
+     */
+    public int getJdbcFetchSize() {
+        return jdbcFetchSize;
+    }
+
+    /**
+     * After how many executions of one statement Postgres prepares it on the
+     * server, 0 never. Statements may override it.
+     *
+     * @return
+     */
+    public int getJdbcPrepareThreshold() {
+        return jdbcPrepareThreshold;
+    }
+
+    /**
+     * Servers for read-only transactions, same database and credentials as
+     * the primary. Empty if everything goes to the primary.
+     *
+     * @return
+     */
+    public List<JdbcEndpoint> getJdbcReplicas() {
+        return jdbcReplicas;
+    }
+
+    /**
+     * How long a session reads from the primary after it wrote, so it sees
+     * its writes even if the replicas lag behind.
+     *
+     * @return
+     */
+    public int getJdbcReadYourWritesMillis() {
+        return jdbcReadYourWritesMillis;
+    }
+
+    /**
+     * Whether the schema is migrated on startup.
+     *
+     * @return
+     */
+    public boolean isJdbcMigrate() {
+        return jdbcMigrate;
+    }
+
+    /**
+     * Statements that take longer are logged with the shape of their
+     * arguments, 0 never.
+     *
+     * @return
+     */
+    public int getJdbcSlowStatementMillis() {
+        return jdbcSlowStatementMillis;
+    }
+
+    /**
+     * Connections each pool keeps open even when idle. With adaptive sizing
+     * also the least maximum.
+     *
+     * @return
+     */
+    public int getJdbcPoolMinSize() {
+        return jdbcPoolMinSize;
+    }
+
+    /**
+     * Connections each pool opens at most.
+     *
+     * @return
+     */
+    public int getJdbcPoolMaxSize() {
+        return jdbcPoolMaxSize;
+    }
+
+    /**
+     * How long a connection may be idle before it is closed, if the pool has
+     * more than its minimum. 0 never.
+     *
+     * @return
+     */
+    public int getJdbcPoolIdleTimeoutMillis() {
+        return jdbcPoolIdleTimeoutMillis;
+    }
+
+    /**
+     * Whether the pools are resized by load, within their bounds.
+     *
+     * @return
+     */
+    public boolean isJdbcPoolAdaptive() {
+        return jdbcPoolAdaptive;
+    }
+
+    /**
+     * How often adaptive sizing looks at the pools.
+     *
+     * @return
+     */
+    public int getJdbcPoolAdaptiveIntervalMillis() {
+        return jdbcPoolAdaptiveIntervalMillis;
+    }
+
+    /**
+     * Mean wait for a connection above which adaptive sizing grows a pool.
+     *
+     * @return
+     */
+    public int getJdbcPoolAdaptiveTargetWaitMillis() {
+        return jdbcPoolAdaptiveTargetWaitMillis;
+    }
+
+    /**
+     * First hour of the night in server time, -1 if there is no night.
+     *
+     * @return
+     */
+    public int getJdbcPoolNightStartHour() {
+        return jdbcPoolNightStartHour;
+    }
+
+    /**
+     * First hour after the night in server time, -1 if there is no night.
+     *
+     * @return
+     */
+    public int getJdbcPoolNightEndHour() {
+        return jdbcPoolNightEndHour;
+    }
+
+    /**
+     * Connections each pool keeps open at night when idle, with adaptive
+     * sizing.
+     *
+     * @return
+     */
+    public int getJdbcPoolNightMinSize() {
+        return jdbcPoolNightMinSize;
+    }
+
+    /**
+     * Whether Hikari registers the MBeans of the pools.
+     *
+     * @return
+     */
+    public boolean isJdbcPoolJmxEnabled() {
+        return jdbcPoolJmxEnabled;
+    }
+
+    /**
+     * Warn if a thread waits longer for a pool connection, 0 never.
+     *
+     * @return
+     */
+    public int getJdbcPoolAlertAcquireMillis() {
+        return jdbcPoolAlertAcquireMillis;
+    }
+
+    /**
+     * Warn if this many threads wait for a pool connection, 0 never.
+     *
+     * @return
+     */
+    public int getJdbcPoolAlertPending() {
+        return jdbcPoolAlertPending;
+    }
+
+    /**
+     * Warn if a pool connection is checked out for longer, 0 never.
+     *
+     * @return
+     */
+    public int getJdbcPoolAlertHoldMillis() {
+        return jdbcPoolAlertHoldMillis;
+    }
+
+    /**
+     * Whether todo items are kept in memory instead of the database. Then
+     * there is no connection pool and no transactions.
+     *
+     * @return
+     */
+    public boolean isTodoStoreInMemory() {
+        return todoStoreInMemory;
+    }
+
+    /**
+     * The file the in-memory store is loaded from on start and saved to on
+     * stop, null for none.
+     *
+     * @return
+     */
+    public String getTodoMemorySnapshot() {
+        return todoMemorySnapshot;
+    }
+
+    /**
+     * How many items the todo list shows per page.
+     *
+     * @return
+     */
+    public int getTodoPageSize() {
+        return todoPageSize;
+    }
+
+    /**
+     * How many items a search returns at most.
+     *
+     * @return
+     */
+    public int getTodoSearchMaxResults() {
+        return todoSearchMaxResults;
+    }
+
+    /**
+     * Whether reads of todo items are cached.
+     *
+     * @return
+     */
+    public boolean isTodoCacheEnabled() {
+        return todoCacheEnabled;
+    }
+
+    /**
+     * How many reads the todo cache keeps at most.
+     *
+     * @return
+     */
+    public int getTodoCacheMaxEntries() {
+        return todoCacheMaxEntries;
+    }
+
+    /**
+     * How long the todo cache keeps a read at most.
+     *
+     * @return
+     */
+    public int getTodoCacheTtlMillis() {
+        return todoCacheTtlMillis;
+    }
+
+    /**
+     * Whether the todo cache LISTENs for writes of other instances.
+     *
+     * @return
+     */
+    public boolean isTodoCacheListen() {
+        return todoCacheListen;
+    }
+
+    /**
+     * How often the todo cache checks for notifications.
+     *
+     * @return
+     */
+    public int getTodoCachePollMillis() {
+        return todoCachePollMillis;
+    }
+
+    /**
+     * Whether concurrent stores are queued and committed together.
+     *
+     * @return
+     */
+    public boolean isWriteBehindEnabled() {
+        return writeBehindEnabled;
+    }
+
+    /**
+     * How many queued items to store at most in one transaction.
+     *
+     * @return
+     */
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    /**
+     * How long the first queued item waits for more before its batch is
+     * stored.
+     *
+     * @return
+     */
+    public int getWriteBehindMaxDelayMillis() {
+        return writeBehindMaxDelayMillis;
+    }
+
+    /**
+     * How many items may be queued, storing blocks while full.
+     *
+     * @return
+     */
+    public int getWriteBehindCapacity() {
+        return writeBehindCapacity;
+    }
+
+    private static boolean parseBoolean(Properties props, String key, boolean defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        switch (value.trim()) {
+            case "true":
+                return true;
+            case "false":
+                return false;
+            default:
+                throw new IllegalArgumentException(key + " must be true or false: " + value);
+        }
+    }
+
+    private static int parseNonNegativeInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        int intValue;
+        try {
+            intValue = Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(key + " malformed: " + value, ex);
+        }
+        if (intValue < 0) {
+            throw new IllegalArgumentException(key + " must not be negative: " + intValue);
+        }
+        return intValue;
+    }
+
+    private static int parsePositiveInt(Properties props, String key, int defaultValue) {
+        int intValue = parseNonNegativeInt(props, key, defaultValue);
+        if (intValue == 0) {
+            throw new IllegalArgumentException(key + " must be positive: " + intValue);
+        }
+        return intValue;
+    }
+
     private static boolean isPortValid(int port) {
         return port >= 0 && port < (1 << 16);
     }
 
+    private static boolean isHourValid(int hour) {
+        return hour >= 0 && hour < 24;
+    }
+
 }
@@ -0,0 +1,17 @@
+package com.rmnsc.domain;
+
+import java.io.IOException;
+
+/**
+ * Handles items one at a time, as they are read.
+ *
+ * @author Thomas
+ */
+public interface TodoItemHandler {
+
+    /**
+     * @param item the current item
+     * @throws IOException if writing the item somewhere failed, stops reading
+     */
+    public void handle(TodoItem item) throws IOException;
+}
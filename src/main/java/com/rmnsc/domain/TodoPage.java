@@ -0,0 +1,38 @@
+package com.rmnsc.domain;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One page of items, in the order of their ids, and where the next page
+ * starts.
+ *
+ * @author Thomas
+ */
+public class TodoPage {
+
+    private final List<TodoItem> items;
+    private final Long nextCursor;
+
+    /**
+     * @param items the items of this page
+     * @param nextCursor cursor of the next page, null if this is the last one
+     */
+    public TodoPage(List<TodoItem> items, Long nextCursor) {
+        this.items = Collections.unmodifiableList(Objects.requireNonNull(items, "items must not be null"));
+        this.nextCursor = nextCursor;
+    }
+
+    public List<TodoItem> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the id of the last item of this page, null if this is the last
+     * page.
+     */
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+}
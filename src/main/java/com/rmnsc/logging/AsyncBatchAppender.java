@@ -0,0 +1,318 @@
+package com.rmnsc.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+import ch.qos.logback.core.spi.DeferredProcessingAware;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands events over to a writer thread, which passes them on to the wrapped
+ * appender in batches and flushes once per batch. So slow disks don't stall
+ * request threads.
+ *
+ * The events wait in a bounded ring buffer. What happens if it is full depends
+ * on the {@link OverflowPolicy}. Warnings and errors are never dropped.
+ *
+ * Used for application logs by the webapp and for access logs by the embedded
+ * container, so it only depends on logback. The build copies this package to
+ * the root of the WAR for the container.
+ *
+ * Stopping writes all queued events, but does not stop the wrapped appender.
+ * Whoever created it decides when it is done.
+ *
+ * @author Thomas
+ * @param <E> type of the events
+ */
+public final class AsyncBatchAppender<E> extends UnsynchronizedAppenderBase<E> {
+
+    /**
+     * What to do with events while the buffer is full.
+     */
+    public enum OverflowPolicy {
+
+        // Wait for free space, no events are lost.
+        BLOCK,
+        // Drop DEBUG and INFO events (and all access events).
+        DROP,
+        // Keep every sampleRate-th event that DROP would drop.
+        SAMPLE
+    }
+
+    public static final String NAME = "ASYNC";
+
+    // Shared by the webapp and the embedded container.
+    public static final String ASYNC_PROP = "log.async";
+    public static final String CAPACITY_PROP = "log.async.capacity";
+    public static final String BATCH_SIZE_PROP = "log.async.batchSize";
+    public static final String OVERFLOW_PROP = "log.async.overflow";
+    public static final String SAMPLE_RATE_PROP = "log.async.sampleRate";
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    private static final int DEFAULT_SAMPLE_RATE = 10;
+    // How long to wait for events or free space before checking whether the appender was stopped.
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+    private static final long MAX_STOP_MILLIS = 5000;
+
+    /**
+     * Wraps the appender, if log.async is true.
+     *
+     * @param <E> type of the events
+     * @param appender started appender to write to
+     * @param props the configuration
+     * @return the started async appender, or the given one.
+     */
+    public static <E> Appender<E> wrapIfEnabled(Appender<E> appender, Properties props) {
+        String async = props.getProperty(ASYNC_PROP, "false").trim();
+        switch (async) {
+            case "true":
+                break;
+            case "false":
+                return appender;
+            default:
+                throw new IllegalArgumentException(ASYNC_PROP + " must be true or false: " + async);
+        }
+
+        AsyncBatchAppender<E> asyncAppender = new AsyncBatchAppender<>(appender,
+                getPositiveInt(props, CAPACITY_PROP, DEFAULT_CAPACITY));
+        asyncAppender.setBatchSize(getPositiveInt(props, BATCH_SIZE_PROP, DEFAULT_BATCH_SIZE));
+        asyncAppender.setSampleRate(getPositiveInt(props, SAMPLE_RATE_PROP, DEFAULT_SAMPLE_RATE));
+        String overflowPolicy = props.getProperty(OVERFLOW_PROP, OverflowPolicy.BLOCK.name()).trim();
+        try {
+            asyncAppender.setOverflowPolicy(OverflowPolicy.valueOf(overflowPolicy.toUpperCase()));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("unknown " + OVERFLOW_PROP + ": " + overflowPolicy
+                    + ", must be one of (block, drop, sample)", ex);
+        }
+        asyncAppender.setContext(appender.getContext());
+        asyncAppender.setName(NAME);
+        asyncAppender.start();
+        return asyncAppender;
+    }
+
+    private static int getPositiveInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        int intValue;
+        try {
+            intValue = Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(key + " malformed: " + value, ex);
+        }
+        if (intValue < 1) {
+            throw new IllegalArgumentException(key + " must be positive: " + intValue);
+        }
+        return intValue;
+    }
+
+    private final Appender<E> appender;
+    private final BlockingQueue<E> buffer;
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private int sampleRate = DEFAULT_SAMPLE_RATE;
+    private Thread writer;
+
+    /**
+     * @param appender started appender to write to
+     * @param capacity how many events may wait to be written
+     */
+    public AsyncBatchAppender(Appender<E> appender, int capacity) {
+        this.appender = Objects.requireNonNull(appender, "appender must not be null");
+        // Array based, a ring buffer under the hood.
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy must not be null");
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public Appender<E> getAppender() {
+        return appender;
+    }
+
+    /**
+     * @return how many events were queued so far.
+     */
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * @return how many events were dropped so far, since the buffer was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return how many events are waiting to be written right now.
+     */
+    public int getBacklog() {
+        return buffer.size();
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        // The writer flushes once per batch instead.
+        if (appender instanceof OutputStreamAppender) {
+            Encoder<E> encoder = ((OutputStreamAppender<E>) appender).getEncoder();
+            if (encoder instanceof LayoutWrappingEncoder) {
+                ((LayoutWrappingEncoder<E>) encoder).setImmediateFlush(false);
+            }
+        }
+        super.start();
+        writer = new Thread("async-log-writer") {
+            @Override
+            public void run() {
+                writeUntilStopped();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        try {
+            writer.join(MAX_STOP_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            addWarn("writer did not finish in time, " + buffer.size() + " events are lost");
+        }
+        addInfo("queued " + queuedCount.get() + " events, dropped " + droppedCount.get());
+    }
+
+    @Override
+    protected void append(E event) {
+        // The writer may see the event after the request is gone.
+        if (event instanceof DeferredProcessingAware) {
+            ((DeferredProcessingAware) event).prepareForDeferredProcessing();
+        }
+        if (buffer.offer(event)) {
+            queuedCount.incrementAndGet();
+            return;
+        }
+
+        boolean keep;
+        switch (overflowPolicy) {
+            case BLOCK:
+                keep = true;
+                break;
+            case DROP:
+                keep = !isDroppable(event);
+                break;
+            case SAMPLE:
+                keep = !isDroppable(event) || overflowCount.incrementAndGet() % sampleRate == 0;
+                break;
+            default:
+                throw new IllegalStateException("forgot to handle overflow policy: " + overflowPolicy);
+        }
+        if (keep && put(event)) {
+            queuedCount.incrementAndGet();
+        } else {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    private static boolean isDroppable(Object event) {
+        if (event instanceof ILoggingEvent) {
+            return ((ILoggingEvent) event).getLevel().toInt() <= Level.INFO_INT;
+        }
+        return true;
+    }
+
+    /**
+     * Waits for free space in the buffer, as long as the appender runs.
+     */
+    private boolean put(E event) {
+        try {
+            while (!buffer.offer(event, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!isStarted()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void writeUntilStopped() {
+        List<E> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                E first = buffer.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (!isStarted()) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                write(batch);
+            }
+        } catch (InterruptedException ex) {
+            // Write what is left below.
+        }
+        // Events queued while stopping.
+        while (buffer.drainTo(batch, batchSize) > 0) {
+            write(batch);
+        }
+    }
+
+    private void write(List<E> batch) {
+        for (E event : batch) {
+            appender.doAppend(event);
+        }
+        batch.clear();
+        if (appender instanceof OutputStreamAppender) {
+            OutputStream out = ((OutputStreamAppender<E>) appender).getOutputStream();
+            if (out != null) {
+                try {
+                    out.flush();
+                } catch (IOException ex) {
+                    addError("failed to flush " + appender, ex);
+                }
+            }
+        }
+    }
+}
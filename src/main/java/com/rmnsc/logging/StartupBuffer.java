@@ -0,0 +1,208 @@
+package com.rmnsc.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Buffers log events during startup, until the webapp configured logging and
+ * replays them. Each level has a ring buffer of its own, so chatty levels
+ * can't push out warnings. If a buffer is full, its oldest event is dropped
+ * and counted.
+ *
+ * Events below the minimum level are never created: the root logger is set
+ * to it while buffering.
+ *
+ * Installed by the embedded container, replayed by the webapp. The container
+ * shares this package with the webapp, like logback itself.
+ *
+ * @author Thomas
+ */
+public final class StartupBuffer extends AppenderBase<ILoggingEvent> {
+
+    public static final String NAME = "STARTUP_BUFFER";
+
+    public static final String LEVEL_PROP = "log.startup.level";
+    // Followed by .<level> to override the capacity of one level, e.g. log.startup.capacity.debug.
+    public static final String CAPACITY_PROP = "log.startup.capacity";
+
+    private static final Level DEFAULT_LEVEL = Level.DEBUG;
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final Level[] LEVELS = {Level.ERROR, Level.WARN, Level.INFO, Level.DEBUG, Level.TRACE};
+
+    /**
+     * @param props the configuration
+     * @return a started buffer, configured by the properties.
+     */
+    public static StartupBuffer fromProperties(Properties props) {
+        String levelName = props.getProperty(LEVEL_PROP, DEFAULT_LEVEL.toString()).trim();
+        Level level = Level.toLevel(levelName, null);
+        if (level == null) {
+            throw new IllegalArgumentException("unknown " + LEVEL_PROP + ": " + levelName
+                    + ", must be one of (error, warn, info, debug, trace, all)");
+        }
+        int defaultCapacity = getNonNegativeInt(props, CAPACITY_PROP, DEFAULT_CAPACITY);
+        int[] capacities = new int[LEVELS.length];
+        for (int i = 0; i < LEVELS.length; i++) {
+            capacities[i] = getNonNegativeInt(props, CAPACITY_PROP + '.' + LEVELS[i].toString().toLowerCase(),
+                    defaultCapacity);
+        }
+        StartupBuffer startupBuffer = new StartupBuffer(level, capacities);
+        startupBuffer.setName(NAME);
+        return startupBuffer;
+    }
+
+    private static int getNonNegativeInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        int intValue;
+        try {
+            intValue = Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(key + " malformed: " + value, ex);
+        }
+        if (intValue < 0) {
+            throw new IllegalArgumentException(key + " must not be negative: " + intValue);
+        }
+        return intValue;
+    }
+
+    /**
+     * The events of one level, oldest first, and their sequence numbers to
+     * restore the order of all events on replay.
+     */
+    private static final class Ring {
+
+        private final ILoggingEvent[] events;
+        private final long[] sequences;
+        private int head;
+        private int size;
+        private long dropped;
+
+        Ring(int capacity) {
+            this.events = new ILoggingEvent[capacity];
+            this.sequences = new long[capacity];
+        }
+
+        void add(ILoggingEvent event, long sequence) {
+            if (events.length == 0) {
+                dropped++;
+                return;
+            }
+            int idx = (head + size) % events.length;
+            if (size == events.length) {
+                // Overwrite the oldest.
+                head = (head + 1) % events.length;
+                dropped++;
+            } else {
+                size++;
+            }
+            events[idx] = event;
+            sequences[idx] = sequence;
+        }
+
+        long peekSequence() {
+            return size == 0 ? Long.MAX_VALUE : sequences[head];
+        }
+
+        ILoggingEvent poll() {
+            ILoggingEvent event = events[head];
+            events[head] = null;
+            head = (head + 1) % events.length;
+            size--;
+            return event;
+        }
+    }
+
+    private final Level level;
+    // Same order as LEVELS.
+    private final Ring[] rings;
+    private long sequence;
+
+    /**
+     * @param level events below are not buffered
+     * @param capacities capacity for ERROR, WARN, INFO, DEBUG and TRACE events
+     */
+    StartupBuffer(Level level, int[] capacities) {
+        this.level = level;
+        this.rings = new Ring[LEVELS.length];
+        for (int i = 0; i < LEVELS.length; i++) {
+            rings[i] = new Ring(capacities[i]);
+        }
+    }
+
+    /**
+     * @return the minimum level to set on the root logger while buffering.
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        // Resolved lazily otherwise, which would be the replaying thread.
+        event.getThreadName();
+        rings[indexOf(event.getLevel())].add(event, sequence++);
+    }
+
+    private static int indexOf(Level level) {
+        switch (level.toInt()) {
+            case Level.ERROR_INT:
+                return 0;
+            case Level.WARN_INT:
+                return 1;
+            case Level.INFO_INT:
+                return 2;
+            case Level.DEBUG_INT:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Passes the buffered events on to the appenders of the logger, in the
+     * order they were logged. Empties the buffer.
+     *
+     * @param logger usually the root logger, with the real configuration
+     * @return how many events were dropped, by level. Only levels with drops
+     * are included.
+     */
+    public synchronized Map<String, Long> replay(Logger logger) {
+        while (true) {
+            // Merge by sequence number, there are only a handful of rings.
+            Ring next = null;
+            long nextSequence = Long.MAX_VALUE;
+            for (Ring ring : rings) {
+                long ringSequence = ring.peekSequence();
+                if (ringSequence < nextSequence) {
+                    next = ring;
+                    nextSequence = ringSequence;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            ILoggingEvent event = next.poll();
+            if (logger.isEnabledFor(event.getLevel())) {
+                logger.callAppenders(event);
+            }
+        }
+
+        Map<String, Long> dropped = new LinkedHashMap<>();
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (rings[i].dropped > 0) {
+                dropped.put(LEVELS[i].toString(), rings[i].dropped);
+                rings[i].dropped = 0;
+            }
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,101 @@
+package com.rmnsc.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in fixed buckets, from 1ms to 10s and above. Cheap enough
+ * to record every connection checkout or statement, without locks.
+ *
+ * Percentiles are the upper bound of the bucket they fall into.
+ *
+ * @author Thomas
+ */
+public final class LatencyHistogram {
+
+    // Upper bounds in milliseconds, the last bucket takes everything above.
+    private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos the duration to count
+     */
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < BOUNDS_MILLIS.length && millis >= BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return how many durations were counted.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of all durations counted.
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * @return count, mean, maximum, percentiles and the non-empty buckets,
+     * JSON friendly.
+     */
+    public Map<String, Object> getMetrics() {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("count", total);
+        metrics.put("meanMillis", total == 0 ? 0.0 : totalNanos.get() / 1e6 / total);
+        metrics.put("maxMillis", maxNanos.get() / 1e6);
+        metrics.put("p50Millis", percentile(snapshot, total, 0.5));
+        metrics.put("p99Millis", percentile(snapshot, total, 0.99));
+        Map<String, Long> buckets = new LinkedHashMap<>();
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] > 0) {
+                buckets.put(i < BOUNDS_MILLIS.length ? "<" + BOUNDS_MILLIS[i] + "ms"
+                        : ">=" + BOUNDS_MILLIS[BOUNDS_MILLIS.length - 1] + "ms", snapshot[i]);
+            }
+        }
+        metrics.put("buckets", buckets);
+        return metrics;
+    }
+
+    private static Object percentile(long[] snapshot, long total, double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return BOUNDS_MILLIS[i];
+            }
+        }
+        return ">=" + BOUNDS_MILLIS[BOUNDS_MILLIS.length - 1];
+    }
+}
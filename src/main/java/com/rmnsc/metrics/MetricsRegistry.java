@@ -0,0 +1,61 @@
+package com.rmnsc.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Collects the metrics of the components that register here, so they can be
+ * read in one go, e.g. by the metrics endpoint.
+ *
+ * @author Thomas
+ */
+public final class MetricsRegistry {
+
+    /**
+     * Something with metrics.
+     */
+    public interface Source {
+
+        /**
+         * Called concurrently with whatever the source does, so the values
+         * need not be consistent with each other.
+         *
+         * @return the current values by name, JSON friendly.
+         */
+        Map<String, Object> getMetrics();
+    }
+
+    private final Map<String, Source> sources = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param name name of the source, unique
+     * @param source the source
+     */
+    public void register(String name, Source source) {
+        Objects.requireNonNull(name, "name must not be null");
+        Objects.requireNonNull(source, "source must not be null");
+        if (sources.put(name, source) != null) {
+            throw new IllegalStateException("registered twice: " + name);
+        }
+    }
+
+    /**
+     * @param name name of the source
+     */
+    public void unregister(String name) {
+        sources.remove(name);
+    }
+
+    /**
+     * @return the current metrics of all sources, by source name.
+     */
+    public Map<String, Map<String, Object>> getMetrics() {
+        Map<String, Map<String, Object>> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, Source> entry : sources.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().getMetrics());
+        }
+        return metrics;
+    }
+}
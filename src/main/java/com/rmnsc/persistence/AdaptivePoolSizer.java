@@ -0,0 +1,211 @@
+package com.rmnsc.persistence;
+
+import com.rmnsc.metrics.LatencyHistogram;
+import com.rmnsc.metrics.MetricsRegistry;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resizes a pool within its bounds, by what it observed since the last look.
+ *
+ * If threads waited for connections on average longer than the target, the
+ * maximum grows by a quarter. Unless connections were also held twice as long
+ * as usual: then the database is the bottleneck, and more connections would
+ * only add to its load. If the busiest moment used less than half of the
+ * maximum, it shrinks by an eighth, keeping twice that moment as headroom.
+ *
+ * The minimum is the idle floor: connections kept open when there is nothing
+ * to do. It can be lower at night. Connections above it close once idle for
+ * the idle timeout of the pool.
+ *
+ * @author Thomas
+ */
+final class AdaptivePoolSizer implements MetricsRegistry.Source {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+    private static final long MAX_CLOSE_MILLIS = 5000;
+    // How much more than usual connections must be held to call the database slow.
+    private static final double SLOW_HOLD_FACTOR = 2.0;
+    // Weight of the latest interval in the usual hold time.
+    private static final double HOLD_SMOOTHING = 0.2;
+
+    private final String name;
+    private final MonitoredPool monitoredPool;
+    private final ResizableHikariDataSource pool;
+    private final int minSize;
+    private final int maxSize;
+    private final int nightMinSize;
+    private final int nightStartHour;
+    private final int nightEndHour;
+    private final long targetWaitNanos;
+    private final long intervalMillis;
+    private final Thread sizer;
+    private volatile boolean closed;
+
+    // Only touched by the sizer thread, published for the metrics.
+    private long lastWaitCount;
+    private long lastWaitNanos;
+    private long lastHoldCount;
+    private long lastHoldNanos;
+    private double usualHoldNanos;
+    private volatile double lastMeanWaitMillis;
+    private volatile double lastMeanHoldMillis;
+    private volatile int lastPeakActive;
+    private volatile String lastDecision = "none";
+    private volatile long growCount;
+    private volatile long shrinkCount;
+
+    /**
+     * @param name name of the pool, for logs
+     * @param monitoredPool where to observe the pool
+     * @param pool the pool to resize
+     * @param minSize idle floor by day, and the least maximum
+     * @param maxSize the largest maximum
+     * @param nightMinSize idle floor at night
+     * @param nightStartHour first hour of the night, -1 for no night
+     * @param nightEndHour first hour after the night
+     * @param targetWaitMillis mean wait for a connection above which the pool
+     * grows
+     * @param intervalMillis how often to look at the pool
+     */
+    AdaptivePoolSizer(String name, MonitoredPool monitoredPool, ResizableHikariDataSource pool, int minSize,
+            int maxSize, int nightMinSize, int nightStartHour, int nightEndHour, long targetWaitMillis,
+            long intervalMillis) {
+        this.name = name;
+        this.monitoredPool = monitoredPool;
+        this.pool = pool;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.nightMinSize = Math.min(nightMinSize, minSize);
+        this.nightStartHour = nightStartHour;
+        this.nightEndHour = nightEndHour;
+        this.targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetWaitMillis);
+        this.intervalMillis = intervalMillis;
+        this.sizer = new Thread("pool-sizer-" + name) {
+            @Override
+            public void run() {
+                resizeRegularly();
+            }
+        };
+        sizer.setDaemon(true);
+    }
+
+    void start() {
+        sizer.start();
+    }
+
+    private void resizeRegularly() {
+        while (!closed) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException ex) {
+                // Only close interrupts.
+                return;
+            }
+            try {
+                resize();
+            } catch (RuntimeException ex) {
+                LOGGER.warn("failed to resize pool " + name, ex);
+            }
+        }
+    }
+
+    private void resize() {
+        LatencyHistogram acquireWait = monitoredPool.getAcquireWait();
+        long waitCount = acquireWait.getCount() - lastWaitCount;
+        long waitNanos = acquireWait.getTotalNanos() - lastWaitNanos;
+        lastWaitCount += waitCount;
+        lastWaitNanos += waitNanos;
+        LatencyHistogram hold = monitoredPool.getHold();
+        long holdCount = hold.getCount() - lastHoldCount;
+        long holdNanos = hold.getTotalNanos() - lastHoldNanos;
+        lastHoldCount += holdCount;
+        lastHoldNanos += holdNanos;
+        int peakActive = monitoredPool.takePeakActive();
+
+        double meanWaitNanos = waitCount == 0 ? 0 : (double) waitNanos / waitCount;
+        double meanHoldNanos = holdCount == 0 ? 0 : (double) holdNanos / holdCount;
+        int oldMax = pool.getMaximumPoolSize();
+        int oldMin = pool.getMinimumPoolSize();
+        int max = oldMax;
+        String decision;
+        if (meanWaitNanos > targetWaitNanos) {
+            if (usualHoldNanos > 0 && meanHoldNanos > usualHoldNanos * SLOW_HOLD_FACTOR) {
+                decision = "database slow, not growing";
+            } else {
+                max = Math.min(maxSize, oldMax + Math.max(1, oldMax / 4));
+                decision = "grow";
+            }
+        } else if (peakActive * 2 < oldMax) {
+            max = Math.max(Math.max(minSize, 1), Math.max(peakActive * 2, oldMax - Math.max(1, oldMax / 8)));
+            decision = "shrink";
+        } else {
+            decision = "keep";
+        }
+        if (holdCount > 0) {
+            usualHoldNanos = usualHoldNanos == 0 ? meanHoldNanos
+                    : usualHoldNanos * (1 - HOLD_SMOOTHING) + meanHoldNanos * HOLD_SMOOTHING;
+        }
+        int min = Math.min(max, isNight() ? nightMinSize : minSize);
+
+        lastMeanWaitMillis = meanWaitNanos / 1e6;
+        lastMeanHoldMillis = meanHoldNanos / 1e6;
+        lastPeakActive = peakActive;
+        lastDecision = decision;
+        if (max == oldMax && min == oldMin) {
+            return;
+        }
+        if (max > oldMax) {
+            growCount++;
+        } else if (max < oldMax) {
+            shrinkCount++;
+        }
+        pool.resize(min, max);
+        LOGGER.info("resized pool {} from {}..{} to {}..{}: mean wait {}ms, mean hold {}ms, peak {} checked out",
+                name, oldMin, oldMax, min, max, String.format("%.1f", lastMeanWaitMillis),
+                String.format("%.1f", lastMeanHoldMillis), peakActive);
+    }
+
+    private boolean isNight() {
+        if (nightStartHour < 0) {
+            return false;
+        }
+        int hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+        if (nightStartHour <= nightEndHour) {
+            return hour >= nightStartHour && hour < nightEndHour;
+        }
+        // Across midnight, e.g. 22-6.
+        return hour >= nightStartHour || hour < nightEndHour;
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("night", isNight());
+        metrics.put("lastDecision", lastDecision);
+        metrics.put("lastMeanWaitMillis", lastMeanWaitMillis);
+        metrics.put("lastMeanHoldMillis", lastMeanHoldMillis);
+        metrics.put("lastPeakActive", lastPeakActive);
+        metrics.put("grows", growCount);
+        metrics.put("shrinks", shrinkCount);
+        return metrics;
+    }
+
+    /**
+     * Stops resizing, the pool keeps its current size.
+     */
+    void close() {
+        closed = true;
+        sizer.interrupt();
+        try {
+            sizer.join(MAX_CLOSE_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -7,6 +7,8 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
+ * Injects the SQL of the file named after the field. String fields get the
+ * SQL as is, {@link PreparedSql} fields get it parsed.
  *
  * @author thomas
  */
@@ -20,4 +22,13 @@ public @interface AutowireSql {
     // as override for file to inject is not provided right now.
     // The reason is enforcement of proper naming convention.
 
+    /**
+     * For {@link PreparedSql} fields: after how many executions of one JDBC
+     * statement Postgres prepares it on the server, 0 never. Defaults to the
+     * threshold of the connection, rmnsc.jdbc.prepareThreshold. The driver
+     * does not cache statements, so only executions within one call count,
+     * e.g. the rows of a batch.
+     */
+    int prepareThreshold() default PreparedSql.DEFAULT_PREPARE_THRESHOLD;
+
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.rmnsc.persistence;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -16,7 +17,14 @@ import org.springframework.util.ReflectionUtils.FieldCallback;
 
 /**
  * Injects SQL into fields annotated with {@link AutowireSql}. Uses the name of
- * the field to resolve the file containing the SQL.
+ * the field to resolve the file containing the SQL. {@link PreparedSql} fields
+ * get it parsed, so named parameters are resolved once and not on every call.
+ * Their executions are counted in the {@link StatementMetrics}, by field name.
+ *
+ * The fields and their SQL come from the {@link AutowireSqlIndex} generated
+ * at build time, which also checked them. Only if the classes were compiled
+ * without it, e.g. by an IDE, the fields of every bean are scanned and the
+ * files are read at runtime.
  *
  * Spring does not provide a mechanism to easily externalize SQL. So we use
  * this.
@@ -56,8 +64,46 @@ public class AutowireSqlBeanPostProcessor implements BeanPostProcessor {
     @Autowired
     private ResourceLoader resourceLoader;
 
+    private final StatementMetrics statementMetrics;
+    // Null if not generated, then fields are scanned.
+    private final AutowireSqlIndex index;
+
+    /**
+     * @param statementMetrics where {@link PreparedSql} fields count their
+     * executions
+     */
+    public AutowireSqlBeanPostProcessor(StatementMetrics statementMetrics) {
+        this.statementMetrics = Objects.requireNonNull(statementMetrics, "statementMetrics must not be null");
+        this.index = AutowireSqlIndex.load(AutowireSqlBeanPostProcessor.class.getClassLoader());
+        if (index == null) {
+            LOGGER.warn("{} not found, compiled without the annotation processor. Scanning every bean for @{} fields",
+                    AutowireSqlIndex.GENERATED_CLASS_NAME, AutowireSql.class.getSimpleName());
+        }
+    }
+
     @Override
     public Object postProcessBeforeInitialization(final Object bean, final String beanName) throws BeansException {
+        if (index == null) {
+            scanFields(bean, beanName);
+            return bean;
+        }
+        // Fields of superclasses too, and of the class a proxy extends.
+        for (Class<?> type = bean.getClass(); type != null; type = type.getSuperclass()) {
+            for (AutowireSqlIndex.IndexedField indexedField : index.getFields(type)) {
+                Field field;
+                try {
+                    field = type.getDeclaredField(indexedField.getName());
+                } catch (NoSuchFieldException ex) {
+                    throw new IllegalStateException(AutowireSqlIndex.GENERATED_CLASS_NAME
+                            + " is out of date, rebuild. bean name: " + beanName + ", class: " + type, ex);
+                }
+                injectSql(field, bean, beanName, indexedField.getSql(), indexedField.getPrepareThreshold());
+            }
+        }
+        return bean;
+    }
+
+    private void scanFields(final Object bean, final String beanName) {
         ReflectionUtils.doWithFields(bean.getClass(), new FieldCallback() {
             @Override
             public void doWith(Field field) throws IllegalArgumentException, IllegalAccessException {
@@ -65,8 +111,6 @@ public class AutowireSqlBeanPostProcessor implements BeanPostProcessor {
                 if (annotation == null) {
                     return;
                 }
-                ReflectionUtils.makeAccessible(field);
-
                 String sqlResourcePath = buildSqlResourcePath(field.getName(), bean, beanName);
                 Resource sqlResource = resourceLoader.getResource(sqlResourcePath);
 
@@ -76,12 +120,25 @@ public class AutowireSqlBeanPostProcessor implements BeanPostProcessor {
                 } catch (IOException ex) {
                     throw new IllegalArgumentException("Unable to read resource at path: " + sqlResourcePath, ex);
                 }
-
-                ReflectionUtils.setField(field, bean, sqlString);
-                LOGGER.debug("Inserted sql into field: {} of beanName: {} of class: {} the sql: {}", field.getName(), beanName, bean.getClass(), sqlString);
+                injectSql(field, bean, beanName, sqlString, annotation.prepareThreshold());
             }
         });
-        return bean;
+    }
+
+    private void injectSql(Field field, Object bean, String beanName, String sqlString, int prepareThreshold) {
+        ReflectionUtils.makeAccessible(field);
+        if (field.getType() == String.class) {
+            ReflectionUtils.setField(field, bean, sqlString);
+        } else if (field.getType() == PreparedSql.class) {
+            ReflectionUtils.setField(field, bean, PreparedSql.parse(field.getName(), sqlString,
+                    prepareThreshold, statementMetrics));
+        } else {
+            throw new IllegalArgumentException("Field with annotation @"
+                    + AutowireSql.class.getSimpleName() + " must be a String or a "
+                    + PreparedSql.class.getSimpleName() + ": " + field.getName()
+                    + ". bean name: " + beanName + ", class: " + bean.getClass());
+        }
+        LOGGER.debug("Inserted sql into field: {} of beanName: {} of class: {} the sql: {}", field.getName(), beanName, bean.getClass(), sqlString);
     }
 
     @Override
@@ -0,0 +1,93 @@
+package com.rmnsc.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fields annotated with {@link AutowireSql} and their SQL, collected at
+ * build time by com.rmnsc.build.AutowireSqlProcessor. It generates a subclass
+ * that adds every field, with its SQL as a constant. So the post processor
+ * neither has to look at the fields of every bean, nor read any files.
+ *
+ * @author Thomas
+ */
+abstract class AutowireSqlIndex {
+
+    static final String GENERATED_CLASS_NAME = "com.rmnsc.persistence.GeneratedAutowireSqlIndex";
+
+    /**
+     * One annotated field.
+     */
+    static final class IndexedField {
+
+        private final String name;
+        private final int prepareThreshold;
+        private final String sql;
+
+        IndexedField(String name, int prepareThreshold, String sql) {
+            this.name = name;
+            this.prepareThreshold = prepareThreshold;
+            this.sql = sql;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getPrepareThreshold() {
+            return prepareThreshold;
+        }
+
+        String getSql() {
+            return sql;
+        }
+    }
+
+    private final Map<String, List<IndexedField>> fieldsByClass = new HashMap<>();
+
+    /**
+     * @param className binary name of the class declaring the field
+     * @param fieldName name of the field
+     * @param prepareThreshold from the annotation
+     * @param sql content of the file named after the field
+     */
+    protected final void add(String className, String fieldName, int prepareThreshold, String sql) {
+        List<IndexedField> fields = fieldsByClass.get(className);
+        if (fields == null) {
+            fields = new ArrayList<>();
+            fieldsByClass.put(className, fields);
+        }
+        fields.add(new IndexedField(fieldName, prepareThreshold, sql));
+    }
+
+    /**
+     * @param type the class to look up, not its superclasses
+     * @return the annotated fields the class declares.
+     */
+    List<IndexedField> getFields(Class<?> type) {
+        List<IndexedField> fields = fieldsByClass.get(type.getName());
+        return fields == null ? Collections.<IndexedField>emptyList() : fields;
+    }
+
+    /**
+     * @param classLoader where to look for the generated index
+     * @return the index, null if the classes were compiled without the
+     * processor
+     */
+    static AutowireSqlIndex load(ClassLoader classLoader) {
+        Class<?> generatedClass;
+        try {
+            generatedClass = Class.forName(GENERATED_CLASS_NAME, true, classLoader);
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+        try {
+            return (AutowireSqlIndex) generatedClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("failed to create " + GENERATED_CLASS_NAME, ex);
+        }
+    }
+}
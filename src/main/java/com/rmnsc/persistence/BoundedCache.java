@@ -0,0 +1,116 @@
+package com.rmnsc.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A least recently used cache with a maximum size, whose entries also expire
+ * after a while.
+ *
+ * Loads race with invalidations: a value loaded before an invalidation may be
+ * stale, so it is only put if there was no invalidation since the load began.
+ * Take a {@link #generation()} before loading and pass it to
+ * {@link #put(Object, Object, long)}.
+ *
+ * @author Thomas
+ * @param <K> type of the keys
+ * @param <V> type of the values, should be immutable
+ */
+final class BoundedCache<K, V> {
+
+    private static final class CacheEntry<V> {
+
+        private final V value;
+        private final long expiresNanos;
+
+        CacheEntry(V value, long expiresNanos) {
+            this.value = value;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+    private long generation;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expirationCount;
+    private long invalidationCount;
+
+    /**
+     * @param maxEntries how many entries to keep at most, the least recently
+     * used ones are evicted
+     * @param ttlMillis how long an entry is valid after it was put
+     */
+    BoundedCache(final int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > BoundedCache.this.maxEntries) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key the key
+     * @return the value, null if there is none or it expired.
+     */
+    synchronized V get(K key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresNanos >= 0) {
+            entries.remove(key);
+            expirationCount++;
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * @return the current generation, changes on every invalidation.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * @param key the key
+     * @param value the value
+     * @param generation the generation taken before the value was loaded
+     */
+    synchronized void put(K key, V value, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        entries.put(key, new CacheEntry<>(value, System.nanoTime() + ttlNanos));
+    }
+
+    synchronized void invalidateAll() {
+        generation++;
+        invalidationCount++;
+        entries.clear();
+    }
+
+    synchronized void putMetrics(Map<String, Object> metrics) {
+        metrics.put("entries", entries.size());
+        metrics.put("hits", hitCount);
+        metrics.put("misses", missCount);
+        metrics.put("evictions", evictionCount);
+        metrics.put("expirations", expirationCount);
+        metrics.put("invalidations", invalidationCount);
+    }
+}
@@ -0,0 +1,297 @@
+package com.rmnsc.persistence;
+
+import com.rmnsc.domain.TodoItem;
+import com.rmnsc.domain.TodoItemHandler;
+import com.rmnsc.domain.TodoPage;
+import com.rmnsc.metrics.MetricsRegistry;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Caches the reads of another {@link TodoDao}. Streaming reads are passed on.
+ *
+ * Every write invalidates the whole cache, once right away and once the
+ * transaction completed. It also sends a NOTIFY, which Postgres delivers on
+ * commit. A listener thread on every instance LISTENs on its own connection
+ * and invalidates its cache when notified, so other instances see the write
+ * within a poll interval. While the listener is not connected the cache is
+ * bypassed, since notifications may be missed.
+ *
+ * With replicas, only reads from the primary are cached. A replica may not
+ * have applied a commit yet when its NOTIFY cleared the cache, and what it
+ * returned would then be served until it expires, also to the session that
+ * wrote.
+ *
+ * @author Thomas
+ */
+public class CachingTodoDao extends AbstractJdbcTemplateDao implements TodoDao, InitializingBean,
+        MetricsRegistry.Source {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingTodoDao.class);
+
+    private static final String ALL_KEY = "all";
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+    private static final long MAX_CLOSE_MILLIS = 5000;
+
+    @AutowireSql
+    private String dml_notify_todo_item;
+    @AutowireSql
+    private String dml_listen_todo_item;
+
+    private final TodoDao delegate;
+    private final DataSource listenDataSource;
+    private final ReadWriteRoutingDataSource routingDataSource;
+    private final long pollMillis;
+    private final BoundedCache<String, Object> cache;
+    private final AtomicLong notificationCount = new AtomicLong();
+    private final AtomicLong replicaReadCount = new AtomicLong();
+    private Thread listener;
+    private volatile boolean listening;
+    private volatile boolean closed;
+
+    /**
+     * @param delegate the DAO to read from and write to
+     * @param jdbcOperations the operations to send NOTIFY with, in the
+     * transaction of the write
+     * @param listenDataSource where to open the LISTEN connection, null to
+     * not listen. Should not be pooled, the connection is kept forever.
+     * @param routingDataSource where the delegate reads from, to only cache
+     * reads from the primary
+     * @param maxEntries how many reads to cache at most
+     * @param ttlMillis how long to cache a read at most
+     * @param pollMillis how often the listener checks for notifications
+     */
+    public CachingTodoDao(TodoDao delegate, NamedParameterJdbcOperations jdbcOperations, DataSource listenDataSource,
+            ReadWriteRoutingDataSource routingDataSource, int maxEntries, long ttlMillis, long pollMillis) {
+        super(jdbcOperations);
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.listenDataSource = listenDataSource;
+        this.routingDataSource = Objects.requireNonNull(routingDataSource, "routingDataSource must not be null");
+        this.pollMillis = pollMillis;
+        this.cache = new BoundedCache<>(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Starts the listener, once the SQL is injected.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (listenDataSource == null) {
+            return;
+        }
+        listener = new Thread("todo-cache-listener") {
+            @Override
+            public void run() {
+                listen();
+            }
+        };
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    private void listen() {
+        // Warn once per outage, not on every attempt.
+        boolean warned = false;
+        while (!closed) {
+            try (Connection connection = listenDataSource.getConnection();
+                    Statement statement = connection.createStatement()) {
+                connection.setAutoCommit(true);
+                statement.execute(dml_listen_todo_item);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                // Whatever happened before, we missed it.
+                cache.invalidateAll();
+                listening = true;
+                warned = false;
+                LOGGER.info("listening for todo item changes");
+                while (!closed) {
+                    // The driver only reads notifications while talking to the server.
+                    statement.execute("SELECT 1");
+                    PGNotification[] notifications = pgConnection.getNotifications();
+                    if (notifications != null && notifications.length > 0) {
+                        notificationCount.addAndGet(notifications.length);
+                        cache.invalidateAll();
+                    }
+                    Thread.sleep(pollMillis);
+                }
+            } catch (SQLException ex) {
+                listening = false;
+                if (closed) {
+                    return;
+                }
+                if (warned) {
+                    LOGGER.debug("todo cache listener failed to reconnect", ex);
+                } else {
+                    LOGGER.warn("todo cache listener has no connection, bypassing the cache until connected", ex);
+                    warned = true;
+                }
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException iex) {
+                    return;
+                }
+            } catch (InterruptedException ex) {
+                // Only close interrupts.
+                return;
+            } finally {
+                listening = false;
+            }
+        }
+    }
+
+    private boolean isCacheUsable() {
+        return listenDataSource == null || listening;
+    }
+
+    /**
+     * Caches what the delegate read, if it read from the primary.
+     */
+    private void put(String key, Object value, long generation) {
+        if (routingDataSource.isPrimaryRouted()) {
+            cache.put(key, value, generation);
+        } else {
+            replicaReadCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void store(TodoItem item) {
+        delegate.store(item);
+        changed();
+    }
+
+    @Override
+    public void storeAll(Collection<TodoItem> items) {
+        delegate.storeAll(items);
+        changed();
+    }
+
+    private void changed() {
+        if (listenDataSource != null) {
+            jdbcOperations.getJdbcOperations().execute(dml_notify_todo_item);
+        }
+        cache.invalidateAll();
+        // Reads until the commit may cache what was there before.
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidateAll();
+                }
+            });
+        }
+    }
+
+    @Override
+    public Iterable<TodoItem> getAll() {
+        if (!isCacheUsable()) {
+            return delegate.getAll();
+        }
+        @SuppressWarnings("unchecked")
+        List<TodoItem> items = (List<TodoItem>) cache.get(ALL_KEY);
+        if (items == null) {
+            long generation = cache.generation();
+            List<TodoItem> loaded = new ArrayList<>();
+            for (TodoItem item : delegate.getAll()) {
+                loaded.add(item);
+            }
+            items = Collections.unmodifiableList(loaded);
+            put(ALL_KEY, items, generation);
+        }
+        return items;
+    }
+
+    @Override
+    public void forEach(TodoItemHandler handler) {
+        delegate.forEach(handler);
+    }
+
+    @Override
+    public TodoItem getById(int id) {
+        if (!isCacheUsable()) {
+            return delegate.getById(id);
+        }
+        String key = "id:" + id;
+        TodoItem item = (TodoItem) cache.get(key);
+        if (item == null) {
+            long generation = cache.generation();
+            item = delegate.getById(id);
+            put(key, item, generation);
+        }
+        return item;
+    }
+
+    @Override
+    public TodoPage getPage(Long cursor, int pageSize) {
+        if (!isCacheUsable()) {
+            return delegate.getPage(cursor, pageSize);
+        }
+        String key = "page:" + cursor + ':' + pageSize;
+        TodoPage page = (TodoPage) cache.get(key);
+        if (page == null) {
+            long generation = cache.generation();
+            page = delegate.getPage(cursor, pageSize);
+            put(key, page, generation);
+        }
+        return page;
+    }
+
+    @Override
+    public List<TodoItem> search(String query, int limit) {
+        if (!isCacheUsable()) {
+            return delegate.search(query, limit);
+        }
+        String key = "search:" + limit + ':' + query;
+        @SuppressWarnings("unchecked")
+        List<TodoItem> items = (List<TodoItem>) cache.get(key);
+        if (items == null) {
+            long generation = cache.generation();
+            items = Collections.unmodifiableList(delegate.search(query, limit));
+            put(key, items, generation);
+        }
+        return items;
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        cache.putMetrics(metrics);
+        metrics.put("listening", listening);
+        metrics.put("notifications", notificationCount.get());
+        metrics.put("uncachedReplicaReads", replicaReadCount.get());
+        return metrics;
+    }
+
+    /**
+     * Stops the listener. Called when the application context closes.
+     */
+    public void close() {
+        closed = true;
+        if (listener == null) {
+            return;
+        }
+        listener.interrupt();
+        try {
+            listener.join(MAX_CLOSE_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
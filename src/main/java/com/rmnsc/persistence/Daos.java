@@ -1,8 +1,14 @@
 
 package com.rmnsc.persistence;
 
+import com.rmnsc.config.AppConfig;
+import com.rmnsc.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.nio.file.Paths;
+import javax.sql.DataSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
@@ -14,12 +20,54 @@ import org.springframework.context.annotation.Import;
 @Import(PersistenceConfig.class)
 public class Daos {
 
-    @Autowired
+    // None if the items are kept in memory.
+    @Autowired(required = false)
     private PersistenceConfig config;
+    @Autowired
+    private AppConfig appConfig;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * Closed when the DispatcherServlet closes the application context.
+     */
+    @Bean
+    public TodoDao todoDao() {
+        if (appConfig.isTodoStoreInMemory()) {
+            return offHeapTodoDao();
+        }
+        if (!appConfig.isTodoCacheEnabled()) {
+            return jdbcTodoDao();
+        }
+        DataSource listenDataSource = appConfig.isTodoCacheListen()
+                ? PersistenceConfig.createRawDataSource(appConfig) : null;
+        CachingTodoDao cachingTodoDao = new CachingTodoDao(jdbcTodoDao(), config.namedParameterJdbcOperations(),
+                listenDataSource, config.routingDataSource(), appConfig.getTodoCacheMaxEntries(),
+                appConfig.getTodoCacheTtlMillis(), appConfig.getTodoCachePollMillis());
+        metricsRegistry.register("todoCache", cachingTodoDao);
+        return cachingTodoDao;
+    }
+
+    private TodoDao offHeapTodoDao() {
+        String snapshot = appConfig.getTodoMemorySnapshot();
+        TodoDaoOffHeap offHeapTodoDao;
+        try {
+            offHeapTodoDao = new TodoDaoOffHeap(snapshot == null ? null : Paths.get(snapshot));
+        } catch (IOException ex) {
+            throw new IllegalStateException("could not load todo items from " + snapshot, ex);
+        }
+        metricsRegistry.register("todoStore", offHeapTodoDao);
+        return offHeapTodoDao;
+    }
 
+    /**
+     * A bean of its own, so it gets its SQL and transaction checks.
+     */
     @Bean
-    public TodoDao todoDao(){
-        return new TodoDaoJdbc(config.namedParameterJdbcOperations());
+    @Conditional(JdbcStoreCondition.class)
+    public TodoDao jdbcTodoDao() {
+        return new TodoDaoJdbc(config.namedParameterJdbcOperations(), appConfig.getJdbcCopyThreshold(),
+                appConfig.getJdbcFetchSize());
     }
 
 }
\ No newline at end of file
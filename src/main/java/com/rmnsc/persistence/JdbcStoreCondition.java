@@ -0,0 +1,21 @@
+package com.rmnsc.persistence;
+
+import com.rmnsc.config.AppConfig;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Matches unless todo items are kept in memory. Then there is no database,
+ * and nothing may try to connect to one.
+ *
+ * @author Thomas
+ */
+final class JdbcStoreCondition implements Condition {
+
+    @Override
+    public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+        // A singleton of the parent context, there before the configuration is read.
+        return !context.getBeanFactory().getBean(AppConfig.class).isTodoStoreInMemory();
+    }
+}
@@ -0,0 +1,284 @@
+package com.rmnsc.persistence;
+
+import com.rmnsc.metrics.LatencyHistogram;
+import com.rmnsc.metrics.MetricsRegistry;
+import com.zaxxer.hikari.HikariPoolMBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Measures how a connection pool is used: how long threads wait for a
+ * connection, how many are waiting, how many connections are checked out and
+ * for how long, by transaction. The transaction name of @Transactional methods
+ * is the method, so slow service methods show up by name.
+ *
+ * Idle and total connections are only known to Hikari, which publishes them
+ * over JMX. They are included if the pool registered its MBeans.
+ *
+ * Logs a warning if a threshold is exceeded, at most once per interval per
+ * pool. The others are counted.
+ *
+ * Optionally an {@link AdaptivePoolSizer} resizes the pool by these numbers.
+ *
+ * @author Thomas
+ */
+public class MonitoredPool extends DelegatingDataSource implements MetricsRegistry.Source {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MonitoredPool.class);
+
+    private static final long ALERT_INTERVAL_MILLIS = 10000;
+    private static final String NO_TRANSACTION = "(none)";
+
+    private final String name;
+    private final ResizableHikariDataSource pool;
+    private final HikariPoolMBean poolMBean;
+    private final long acquireAlertNanos;
+    private final int pendingAlert;
+    private final long holdAlertNanos;
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+    // Most checked out at once since the sizer last looked.
+    private final AtomicInteger peakActiveCount = new AtomicInteger();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong failedAcquireCount = new AtomicLong();
+    private final LatencyHistogram acquireWait = new LatencyHistogram();
+    private final LatencyHistogram hold = new LatencyHistogram();
+    // The transaction names are the @Transactional methods, there are few.
+    private final ConcurrentMap<String, LatencyHistogram> holdByTransaction = new ConcurrentHashMap<>();
+    private final AtomicLong alertCount = new AtomicLong();
+    private final AtomicLong lastAlertMillis = new AtomicLong();
+    private AdaptivePoolSizer sizer;
+
+    /**
+     * @param name name of the pool, for logs
+     * @param pool the pool, shut down by {@link #shutdown()}
+     * @param poolMBean the MBean of the pool, null if not registered
+     * @param acquireAlertMillis warn if a thread waits longer for a
+     * connection, 0 never
+     * @param pendingAlert warn if this many threads wait for a connection, 0
+     * never
+     * @param holdAlertMillis warn if a connection is checked out for longer, 0
+     * never
+     */
+    public MonitoredPool(String name, ResizableHikariDataSource pool, HikariPoolMBean poolMBean,
+            long acquireAlertMillis, int pendingAlert, long holdAlertMillis) {
+        super(pool);
+        this.name = name;
+        this.pool = pool;
+        this.poolMBean = poolMBean;
+        this.acquireAlertNanos = TimeUnit.MILLISECONDS.toNanos(acquireAlertMillis);
+        this.pendingAlert = pendingAlert;
+        this.holdAlertNanos = TimeUnit.MILLISECONDS.toNanos(holdAlertMillis);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        int pending = pendingCount.incrementAndGet();
+        if (pendingAlert > 0 && pending >= pendingAlert) {
+            alert("pool {} saturated: {} threads waiting for a connection, {} checked out",
+                    name, pending, activeCount.get());
+        }
+        long start = System.nanoTime();
+        Connection connection;
+        try {
+            connection = pool.getConnection();
+        } catch (SQLException | RuntimeException ex) {
+            failedAcquireCount.incrementAndGet();
+            throw ex;
+        } finally {
+            pendingCount.decrementAndGet();
+        }
+        long acquired = System.nanoTime();
+        long wait = acquired - start;
+        acquireWait.record(wait);
+        if (acquireAlertNanos > 0 && wait > acquireAlertNanos) {
+            alert("pool {} saturated: waited {}ms for a connection, {} checked out",
+                    name, TimeUnit.NANOSECONDS.toMillis(wait), activeCount.get());
+        }
+        int active = activeCount.incrementAndGet();
+        int peak = peakActiveCount.get();
+        while (active > peak && !peakActiveCount.compareAndSet(peak, active)) {
+            peak = peakActiveCount.get();
+        }
+        String transaction = TransactionSynchronizationManager.getCurrentTransactionName();
+        return (Connection) Proxy.newProxyInstance(MonitoredPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new CheckoutHandler(connection, transaction == null ? NO_TRANSACTION : transaction, acquired));
+    }
+
+    /**
+     * Like Hikari: the credentials of the pool are used, with a warning.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        LOGGER.warn("pool {} has its credentials, ignoring the given ones", name);
+        return getConnection();
+    }
+
+    private void released(String transaction, long acquiredNanos) {
+        activeCount.decrementAndGet();
+        long duration = System.nanoTime() - acquiredNanos;
+        hold.record(duration);
+        LatencyHistogram transactionHold = holdByTransaction.get(transaction);
+        if (transactionHold == null) {
+            LatencyHistogram newHold = new LatencyHistogram();
+            transactionHold = holdByTransaction.putIfAbsent(transaction, newHold);
+            if (transactionHold == null) {
+                transactionHold = newHold;
+            }
+        }
+        transactionHold.record(duration);
+        if (holdAlertNanos > 0 && duration > holdAlertNanos) {
+            alert("pool {}: transaction {} held a connection for {}ms",
+                    name, transaction, TimeUnit.NANOSECONDS.toMillis(duration));
+        }
+    }
+
+    LatencyHistogram getAcquireWait() {
+        return acquireWait;
+    }
+
+    LatencyHistogram getHold() {
+        return hold;
+    }
+
+    /**
+     * @return the most connections checked out at once since the last call.
+     */
+    int takePeakActive() {
+        return peakActiveCount.getAndSet(activeCount.get());
+    }
+
+    /**
+     * @param sizer resizes the pool from now on, stopped on close
+     */
+    synchronized void startSizer(AdaptivePoolSizer sizer) {
+        if (this.sizer != null) {
+            throw new IllegalStateException("sizer already started for pool " + name);
+        }
+        this.sizer = sizer;
+        sizer.start();
+    }
+
+    private void alert(String format, Object... args) {
+        alertCount.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long last = lastAlertMillis.get();
+        if (now - last >= ALERT_INTERVAL_MILLIS && lastAlertMillis.compareAndSet(last, now)) {
+            LOGGER.warn(format, args);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("active", activeCount.get());
+        metrics.put("pending", pendingCount.get());
+        metrics.put("minimumPoolSize", pool.getMinimumPoolSize());
+        metrics.put("maximumPoolSize", pool.getMaximumPoolSize());
+        if (poolMBean != null) {
+            metrics.put("idle", poolMBean.getIdleConnections());
+            metrics.put("total", poolMBean.getTotalConnections());
+        }
+        metrics.put("failedAcquires", failedAcquireCount.get());
+        metrics.put("alerts", alertCount.get());
+        metrics.put("acquireWait", acquireWait.getMetrics());
+        metrics.put("hold", hold.getMetrics());
+        Map<String, Object> byTransaction = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : holdByTransaction.entrySet()) {
+            byTransaction.put(entry.getKey(), entry.getValue().getMetrics());
+        }
+        metrics.put("holdByTransaction", byTransaction);
+        AdaptivePoolSizer currentSizer;
+        synchronized (this) {
+            currentSizer = sizer;
+        }
+        if (currentSizer != null) {
+            metrics.put("sizer", currentSizer.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Stops the sizer, if any. The pool stays open.
+     */
+    public void close() {
+        AdaptivePoolSizer currentSizer;
+        synchronized (this) {
+            currentSizer = sizer;
+            sizer = null;
+        }
+        if (currentSizer != null) {
+            currentSizer.close();
+        }
+    }
+
+    /**
+     * Stops the sizer and shuts down the pool.
+     */
+    public void shutdown() {
+        close();
+        pool.shutdown();
+    }
+
+    /**
+     * Counts the connection as released when it is closed, once.
+     */
+    private final class CheckoutHandler implements InvocationHandler {
+
+        private final Connection target;
+        private final String transaction;
+        private final long acquiredNanos;
+        private boolean closed;
+
+        CheckoutHandler(Connection target, String transaction, long acquiredNanos) {
+            this.target = target;
+            this.transaction = transaction;
+            this.acquiredNanos = acquiredNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "isClosed":
+                    if (closed) {
+                        return true;
+                    }
+                    break;
+                case "close":
+                    if (closed) {
+                        return null;
+                    }
+                    closed = true;
+                    released(transaction, acquiredNanos);
+                    break;
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getTargetException();
+            }
+        }
+    }
+}
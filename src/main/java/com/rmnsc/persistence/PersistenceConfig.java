@@ -1,13 +1,25 @@
 package com.rmnsc.persistence;
 
+import com.googlecode.flyway.core.Flyway;
 import com.rmnsc.config.AppConfig;
+import com.rmnsc.metrics.MetricsRegistry;
+import com.rmnsc.startup.ParallelBootstrap;
+import com.rmnsc.startup.StartupTimeline;
 import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMBean;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 import org.postgresql.ds.PGSimpleDataSource;
 import org.slf4j.Logger;
@@ -15,7 +27,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -25,15 +39,28 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 import org.springframework.transaction.annotation.TransactionManagementConfigurer;
 
 /**
+ * Skipped if todo items are kept in memory, together with the transaction
+ * management.
  *
  * @author Thomas
  */
 @Configuration
+@Conditional(JdbcStoreCondition.class)
 @EnableTransactionManagement
 public class PersistenceConfig implements TransactionManagementConfigurer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PersistenceConfig.class);
 
+    private static final boolean AUTO_COMMIT = false;
+    // Hikari wants the name of the constant.
+    private static final String TRANSACTION_ISOLATION_NAME = "TRANSACTION_REPEATABLE_READ";
+    private static final int TRANSACTION_ISOLATION = Connection.TRANSACTION_REPEATABLE_READ;
+
+    private static final String MIGRATION_LOCATION = "db/migration";
+
+    private static final String PRIMARY_POOL_NAME = "primary";
+    private static final String REPLICA_POOL_NAME = "replica";
+
     private static final class Slf4jInfoWriter extends Writer {
 
         private final ThreadLocal<StringBuilder> threadLocalBuilder;
@@ -77,21 +104,161 @@ public class PersistenceConfig implements TransactionManagementConfigurer {
         }
     }
     @Autowired
+    private ParallelBootstrap parallelBootstrap;
+    @Autowired
     private AppConfig appConfig;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
 
     @Bean
     public BeanPostProcessor autowireSqlBeanPostProcessor() {
-        return new AutowireSqlBeanPostProcessor();
+        return new AutowireSqlBeanPostProcessor(statementMetrics());
     }
 
+    /**
+     * Published as statements in the metrics.
+     */
     @Bean
-    public DataSource dataSource() {
+    public StatementMetrics statementMetrics() {
+        StatementMetrics statementMetrics = new StatementMetrics(appConfig.getJdbcSlowStatementMillis());
+        metricsRegistry.register("statements", statementMetrics);
+        return statementMetrics;
+    }
+
+    /**
+     * Shut down when the DispatcherServlet closes the application context,
+     * after the container drained all requests.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ResizableHikariDataSource connectionPool() {
+        return parallelBootstrap.take(ParallelBootstrap.CONNECTION_POOL, ResizableHikariDataSource.class);
+    }
+
+    /**
+     * Opens the minimum number of connections right away, then migrates the
+     * schema if configured. Run by the {@link ParallelBootstrap}.
+     *
+     * @param appConfig the configuration
+     * @param startupTimeline where to record the pool initialization
+     * @return the pool
+     */
+    public static ResizableHikariDataSource createConnectionPool(AppConfig appConfig,
+            StartupTimeline startupTimeline) {
+        HikariConfig config = createPoolConfig(createRawDataSource(appConfig), PRIMARY_POOL_NAME, appConfig);
+        config.setInitializationFailFast(true);
+
+        long poolStart = System.currentTimeMillis();
+        ResizableHikariDataSource connectionPool = new ResizableHikariDataSource(config);
+        startupTimeline.record(StartupTimeline.HIKARI_POOL_INIT, poolStart);
+
+        if (appConfig.isJdbcMigrate()) {
+            long migrationStart = System.currentTimeMillis();
+            try {
+                migrateSchema(connectionPool);
+            } catch (RuntimeException ex) {
+                connectionPool.shutdown();
+                throw ex;
+            }
+            startupTimeline.record(StartupTimeline.SCHEMA_MIGRATION, migrationStart);
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Applies the migrations in db/migration on the classpath that did not
+     * run yet. A database that predates the migrations, with the todo_item
+     * table but without the metadata table, counts as being at version 1.
+     */
+    private static void migrateSchema(DataSource dataSource) {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.setLocations(MIGRATION_LOCATION);
+        flyway.setInitOnMigrate(true);
+        flyway.setInitVersion("1");
+        int applied = flyway.migrate();
+        LOGGER.info("applied {} schema migrations", applied);
+    }
+
+    private static HikariConfig createPoolConfig(DataSource dataSource, String poolName, AppConfig appConfig) {
+        HikariConfig config = new HikariConfig();
+        config.setDataSource(dataSource);
+        config.setPoolName(poolName);
+        config.setRegisterMbeans(appConfig.isJdbcPoolJmxEnabled());
+        config.setAutoCommit(AUTO_COMMIT);
+        config.setTransactionIsolation(TRANSACTION_ISOLATION_NAME);
+        config.setMinimumPoolSize(appConfig.getJdbcPoolMinSize());
+        config.setMaximumPoolSize(appConfig.getJdbcPoolMaxSize());
+        config.setIdleTimeout(appConfig.getJdbcPoolIdleTimeoutMillis());
+        return config;
+    }
+
+    /**
+     * Replicas may be down on startup, reads then go to the primary.
+     */
+    private static ResizableHikariDataSource createReplicaPool(AppConfig appConfig, AppConfig.JdbcEndpoint replica,
+            String poolName) {
+        PGSimpleDataSource dataSource = createRawDataSource(appConfig);
+        dataSource.setServerName(replica.getHost());
+        dataSource.setPortNumber(replica.getPort());
+        HikariConfig config = createPoolConfig(dataSource, poolName, appConfig);
+        config.setInitializationFailFast(false);
+        // Filling the pool retries in the constructor. A replica that is down
+        // must not hold up startup, reads fall back to the primary meanwhile.
+        config.setMinimumPoolSize(0);
+        return new ResizableHikariDataSource(config);
+    }
+
+    /**
+     * Measures the pool and publishes its metrics, e.g. as pool.primary. Also
+     * resizes it, if configured.
+     */
+    private MonitoredPool monitor(ResizableHikariDataSource pool, String poolName) {
+        MonitoredPool monitoredPool = new MonitoredPool(poolName, pool, lookUpPoolMBean(poolName),
+                appConfig.getJdbcPoolAlertAcquireMillis(), appConfig.getJdbcPoolAlertPending(),
+                appConfig.getJdbcPoolAlertHoldMillis());
+        if (appConfig.isJdbcPoolAdaptive()) {
+            monitoredPool.startSizer(new AdaptivePoolSizer(poolName, monitoredPool, pool,
+                    appConfig.getJdbcPoolMinSize(), appConfig.getJdbcPoolMaxSize(),
+                    appConfig.getJdbcPoolNightMinSize(), appConfig.getJdbcPoolNightStartHour(),
+                    appConfig.getJdbcPoolNightEndHour(), appConfig.getJdbcPoolAdaptiveTargetWaitMillis(),
+                    appConfig.getJdbcPoolAdaptiveIntervalMillis()));
+        }
+        metricsRegistry.register("pool." + poolName, monitoredPool);
+        return monitoredPool;
+    }
+
+    /**
+     * @return the MBean Hikari registered for the pool, null if it did not.
+     */
+    private static HikariPoolMBean lookUpPoolMBean(String poolName) {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName;
+        try {
+            objectName = new ObjectName("com.zaxxer.hikari:type=Pool (" + poolName + ")");
+        } catch (MalformedObjectNameException ex) {
+            throw new IllegalArgumentException("pool name malformed: " + poolName, ex);
+        }
+        if (!mBeanServer.isRegistered(objectName)) {
+            return null;
+        }
+        return JMX.newMBeanProxy(mBeanServer, objectName, HikariPoolMBean.class);
+    }
+
+    /**
+     * Opens a new connection each time. For the pool, and for connections
+     * that are never given back.
+     *
+     * @param appConfig the configuration
+     * @return the data source
+     */
+    public static PGSimpleDataSource createRawDataSource(AppConfig appConfig) {
         PGSimpleDataSource dataSource = new PGSimpleDataSource();
         dataSource.setServerName(appConfig.getJdbcHost());
         dataSource.setPortNumber(appConfig.getJdbcPort());
         dataSource.setDatabaseName(appConfig.getJdbcDbName());
         dataSource.setUser(appConfig.getJdbcUsername());
         dataSource.setPassword(appConfig.getJdbcPassword());
+        dataSource.setPrepareThreshold(appConfig.getJdbcPrepareThreshold());
         try {
             dataSource.setLogWriter(new PrintWriter(
                     new Slf4jInfoWriter(LoggerFactory.getLogger(dataSource.getClass().getName())),
@@ -99,27 +266,43 @@ public class PersistenceConfig implements TransactionManagementConfigurer {
         } catch (SQLException ex) {
             LOGGER.warn("failed to enable logging for raw postgres datasource", ex);
         }
+        return dataSource;
+    }
 
-        HikariConfig config = new HikariConfig();
-        config.setDataSource(dataSource);
-        config.setRegisterMbeans(false);
-        config.setAutoCommit(false);
-        config.setTransactionIsolation("TRANSACTION_REPEATABLE_READ");
-        config.setMinimumPoolSize(5);
-        config.setMaximumPoolSize(50);
-        config.setInitializationFailFast(true);
-
-        HikariDataSource connectionPool = new HikariDataSource(config);
+    /**
+     * Closed when the DispatcherServlet closes the application context, which
+     * shuts down the replica pools.
+     */
+    @Bean
+    public ReadWriteRoutingDataSource routingDataSource() {
+        List<MonitoredPool> replicaPools = new ArrayList<>();
+        for (AppConfig.JdbcEndpoint replica : appConfig.getJdbcReplicas()) {
+            LOGGER.info("read-only transactions go to replica {}", replica);
+            String poolName = REPLICA_POOL_NAME + replicaPools.size();
+            replicaPools.add(monitor(createReplicaPool(appConfig, replica, poolName), poolName));
+        }
+        // The primary pool is shut down as a bean of its own.
+        ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(
+                monitor(connectionPool(), PRIMARY_POOL_NAME), replicaPools);
+        if (!replicaPools.isEmpty()) {
+            metricsRegistry.register("routing", routingDataSource);
+        }
+        return routingDataSource;
+    }
 
+    @Bean
+    @Primary
+    public DataSource dataSource() {
         // Wrap the pool so that a Connection is only acquired if a statement
         // is created. This avoids potentially expensive Connection creation in methods
         // that are marked transactional but don't actually talk to the database.
         LazyConnectionDataSourceProxy lazyDataSource = new LazyConnectionDataSourceProxy();
-        lazyDataSource.setTargetDataSource(connectionPool);
+        // Also lets the router see whether the transaction is read-only.
+        lazyDataSource.setTargetDataSource(routingDataSource());
 
         // Tell Spring about the default settings so that it does not have to fetch a connection on startup to check them.
-        lazyDataSource.setDefaultAutoCommit(config.isAutoCommit());
-        lazyDataSource.setDefaultTransactionIsolation(config.getTransactionIsolation());
+        lazyDataSource.setDefaultAutoCommit(AUTO_COMMIT);
+        lazyDataSource.setDefaultTransactionIsolation(TRANSACTION_ISOLATION);
 
         return lazyDataSource;
     }
@@ -0,0 +1,294 @@
+package com.rmnsc.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.postgresql.PGStatement;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlParameter;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+
+/**
+ * SQL with named parameters, parsed once into SQL with positional ones.
+ * Injected by {@link AutowireSqlBeanPostProcessor} into fields of this type.
+ *
+ * The arguments are the values of the named parameters, in the order they
+ * first appear in the SQL. A parameter that appears twice takes one argument.
+ *
+ * Executions are counted in {@link StatementMetrics}, if given, from when the
+ * statement is prepared. Streaming executions include the time the row
+ * handler took.
+ *
+ * @author Thomas
+ */
+public final class PreparedSql {
+
+    /**
+     * Keeps the prepare threshold of the connection.
+     */
+    public static final int DEFAULT_PREPARE_THRESHOLD = -1;
+
+    /**
+     * @param id name of the statement, e.g. of its field
+     * @param namedSql SQL with named parameters, e.g. :description
+     * @param prepareThreshold after how many executions of one JDBC
+     * statement, e.g. rows of a batch, Postgres prepares it on the server, 0
+     * never, or {@link #DEFAULT_PREPARE_THRESHOLD}
+     * @param statementMetrics where to count the executions, null to not
+     * count them
+     * @return the parsed SQL
+     */
+    public static PreparedSql parse(String id, String namedSql, int prepareThreshold,
+            StatementMetrics statementMetrics) {
+        ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(namedSql);
+        // Without a source every parameter becomes a single ?.
+        String sql = NamedParameterUtils.substituteNamedParameters(parsedSql, null);
+        List<SqlParameter> parameters = NamedParameterUtils.buildSqlParameterList(parsedSql,
+                new MapSqlParameterSource());
+        Map<String, Integer> argIndexByName = new LinkedHashMap<>();
+        int[] argIndexes = new int[parameters.size()];
+        for (int i = 0; i < argIndexes.length; i++) {
+            String name = parameters.get(i).getName();
+            if (name == null) {
+                throw new IllegalArgumentException("mixes named and positional parameters: " + namedSql);
+            }
+            Integer argIndex = argIndexByName.get(name);
+            if (argIndex == null) {
+                argIndex = argIndexByName.size();
+                argIndexByName.put(name, argIndex);
+            }
+            argIndexes[i] = argIndex;
+        }
+        return new PreparedSql(id, sql, new ArrayList<>(argIndexByName.keySet()), argIndexes, prepareThreshold,
+                statementMetrics == null ? null : statementMetrics.forStatement(id));
+    }
+
+    private final String id;
+    private final String sql;
+    private final List<String> parameterNames;
+    // Index into the arguments, for each ?.
+    private final int[] argIndexes;
+    private final int prepareThreshold;
+    private final StatementMetrics.Stats stats;
+
+    private PreparedSql(String id, String sql, List<String> parameterNames, int[] argIndexes,
+            int prepareThreshold, StatementMetrics.Stats stats) {
+        this.id = id;
+        this.sql = sql;
+        this.parameterNames = parameterNames;
+        this.argIndexes = argIndexes;
+        this.prepareThreshold = prepareThreshold;
+        this.stats = stats;
+    }
+
+    /**
+     * @return the name of the statement.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the SQL with positional parameters.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the names of the parameters, in argument order.
+     */
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    public int update(JdbcOperations jdbcOperations, Object... args) {
+        Creator creator = new Creator(args, 0, prepareThreshold);
+        int rows = 0;
+        boolean failed = true;
+        try {
+            rows = jdbcOperations.update(creator);
+            failed = false;
+            return rows;
+        } finally {
+            record(creator, rows, failed, args, 1);
+        }
+    }
+
+    public <T> List<T> query(JdbcOperations jdbcOperations, RowMapper<T> rowMapper, Object... args) {
+        Creator creator = new Creator(args, 0, prepareThreshold);
+        List<T> rows = null;
+        try {
+            rows = jdbcOperations.query(creator, rowMapper);
+            return rows;
+        } finally {
+            record(creator, rows == null ? 0 : rows.size(), rows == null, args, 1);
+        }
+    }
+
+    public void query(JdbcOperations jdbcOperations, RowCallbackHandler rowCallbackHandler, Object... args) {
+        queryStreaming(jdbcOperations, 0, rowCallbackHandler, args);
+    }
+
+    /**
+     * Reads the rows a fetch size at a time. Postgres only uses a cursor
+     * outside of auto commit, otherwise the driver reads the whole result.
+     *
+     * @param jdbcOperations the operations to use
+     * @param fetchSize how many rows to fetch per round trip
+     * @param rowCallbackHandler gets the rows in turn
+     * @param args the arguments
+     */
+    public void queryStreaming(JdbcOperations jdbcOperations, int fetchSize,
+            final RowCallbackHandler rowCallbackHandler, Object... args) {
+        Creator creator = new Creator(args, fetchSize, prepareThreshold);
+        final long[] rows = new long[1];
+        boolean failed = true;
+        try {
+            jdbcOperations.query(creator, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    rows[0]++;
+                    rowCallbackHandler.processRow(rs);
+                }
+            });
+            failed = false;
+        } finally {
+            record(creator, rows[0], failed, args, 1);
+        }
+    }
+
+    /**
+     * Executes the statement once per argument array, in one JDBC batch.
+     *
+     * @param jdbcOperations the operations to use
+     * @param batchArgs the arguments of each execution
+     * @return the update counts
+     */
+    public int[] batchUpdate(JdbcOperations jdbcOperations, List<Object[]> batchArgs) {
+        return batchUpdate(jdbcOperations, batchArgs, prepareThreshold);
+    }
+
+    /**
+     * Executes the statement once per argument array, in one JDBC batch.
+     *
+     * @param jdbcOperations the operations to use
+     * @param batchArgs the arguments of each execution
+     * @param batchPrepareThreshold the prepare threshold for this batch
+     * instead of the one of the statement, e.g. 1 to parse it once for all
+     * rows
+     * @return the update counts
+     */
+    public int[] batchUpdate(JdbcOperations jdbcOperations, final List<Object[]> batchArgs,
+            int batchPrepareThreshold) {
+        if (batchArgs.isEmpty()) {
+            return new int[0];
+        }
+        Creator creator = new Creator(batchArgs.get(0), 0, batchPrepareThreshold);
+        long rows = 0;
+        boolean failed = true;
+        try {
+            int[] updateCounts = executeBatch(jdbcOperations, creator, batchArgs);
+            for (int updateCount : updateCounts) {
+                // The driver may not know, e.g. Statement.SUCCESS_NO_INFO.
+                rows += Math.max(updateCount, 0);
+            }
+            failed = false;
+            return updateCounts;
+        } finally {
+            record(creator, rows, failed, batchArgs.get(0), batchArgs.size());
+        }
+    }
+
+    private int[] executeBatch(JdbcOperations jdbcOperations, Creator creator, final List<Object[]> batchArgs) {
+        return jdbcOperations.execute(creator, new PreparedStatementCallback<int[]>() {
+            @Override
+            public int[] doInPreparedStatement(PreparedStatement statement) throws SQLException, DataAccessException {
+                // The creator bound the first arguments.
+                statement.addBatch();
+                for (int i = 1; i < batchArgs.size(); i++) {
+                    bind(statement, batchArgs.get(i));
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            }
+        });
+    }
+
+    private void record(Creator creator, long rows, boolean failed, Object[] args, int batchSize) {
+        if (stats != null) {
+            stats.record(System.nanoTime() - creator.startNanos, rows, failed, parameterNames, args, batchSize);
+        }
+    }
+
+    private void bind(PreparedStatement statement, Object[] args) throws SQLException {
+        if (args.length != parameterNames.size()) {
+            throw new IllegalArgumentException("expected " + parameterNames.size() + " arguments "
+                    + parameterNames + ", got " + args.length + " for: " + sql);
+        }
+        for (int i = 0; i < argIndexes.length; i++) {
+            StatementCreatorUtils.setParameterValue(statement, i + 1, SqlTypeValue.TYPE_UNKNOWN, args[argIndexes[i]]);
+        }
+    }
+
+    private final class Creator implements PreparedStatementCreator, SqlProvider {
+
+        private final Object[] args;
+        private final int fetchSize;
+        private final int prepareThreshold;
+        // Reset once the statement is prepared, so waiting for the connection does not count.
+        private long startNanos = System.nanoTime();
+
+        Creator(Object[] args, int fetchSize, int prepareThreshold) {
+            this.args = Objects.requireNonNull(args, "args must not be null");
+            this.fetchSize = fetchSize;
+            this.prepareThreshold = prepareThreshold;
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            startNanos = System.nanoTime();
+            try {
+                if (prepareThreshold != DEFAULT_PREPARE_THRESHOLD && statement.isWrapperFor(PGStatement.class)) {
+                    statement.unwrap(PGStatement.class).setPrepareThreshold(prepareThreshold);
+                }
+                if (fetchSize > 0) {
+                    statement.setFetchSize(fetchSize);
+                }
+                bind(statement, args);
+            } catch (SQLException | RuntimeException ex) {
+                // Not handed to the template yet, nobody else closes it.
+                statement.close();
+                throw ex;
+            }
+            return statement;
+        }
+
+        @Override
+        public String getSql() {
+            return sql;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
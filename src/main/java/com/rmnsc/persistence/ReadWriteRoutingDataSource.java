@@ -0,0 +1,137 @@
+package com.rmnsc.persistence;
+
+import com.rmnsc.metrics.MetricsRegistry;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Hands out replica connections to read-only transactions, round robin, and
+ * primary connections to everything else.
+ *
+ * Decides when the connection is requested, so it must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}:
+ * the transaction is only marked read-only after it began.
+ *
+ * A replica that fails to hand out a connection is skipped for a while, its
+ * reads go to the other replicas or the primary. Threads can force the
+ * primary, e.g. to read their own writes while replicas lag behind.
+ *
+ * @author Thomas
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource implements MetricsRegistry.Source {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadWriteRoutingDataSource.class);
+
+    private static final long REPLICA_RETRY_MILLIS = 5000;
+
+    private static final ThreadLocal<Boolean> PRIMARY_FORCED = new ThreadLocal<>();
+
+    /**
+     * @param forced whether the current thread reads from the primary, even
+     * in read-only transactions. Reset it when done.
+     */
+    public static void setPrimaryForced(boolean forced) {
+        if (forced) {
+            PRIMARY_FORCED.set(Boolean.TRUE);
+        } else {
+            PRIMARY_FORCED.remove();
+        }
+    }
+
+    private final MonitoredPool primary;
+    private final List<MonitoredPool> replicas;
+    // When to try a failed replica again, 0 if it did not fail.
+    private final AtomicLongArray replicaRetryMillis;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final AtomicLong primaryCount = new AtomicLong();
+    private final AtomicLong replicaCount = new AtomicLong();
+    private final AtomicLong fallbackCount = new AtomicLong();
+
+    /**
+     * @param primary the primary, its pool is owned by the caller
+     * @param replicas the replica pools, shut down on close
+     */
+    public ReadWriteRoutingDataSource(MonitoredPool primary, List<MonitoredPool> replicas) {
+        this.primary = Objects.requireNonNull(primary, "primary must not be null");
+        this.replicas = new ArrayList<>(replicas);
+        this.replicaRetryMillis = new AtomicLongArray(replicas.size());
+    }
+
+    /**
+     * @return whether a connection the current thread requests now comes from
+     * the primary, so what it reads includes every commit.
+     */
+    public boolean isPrimaryRouted() {
+        return replicas.isEmpty() || PRIMARY_FORCED.get() != null
+                || !TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (isPrimaryRouted()) {
+            primaryCount.incrementAndGet();
+            return primary.getConnection();
+        }
+        long now = System.currentTimeMillis();
+        int start = nextReplica.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < replicas.size(); i++) {
+            int idx = (start + i) % replicas.size();
+            if (replicaRetryMillis.get(idx) > now) {
+                continue;
+            }
+            try {
+                Connection connection = replicas.get(idx).getConnection();
+                replicaRetryMillis.set(idx, 0);
+                replicaCount.incrementAndGet();
+                return connection;
+            } catch (SQLException ex) {
+                LOGGER.warn("replica " + idx + " failed, skipping it for " + REPLICA_RETRY_MILLIS + "ms", ex);
+                replicaRetryMillis.set(idx, now + REPLICA_RETRY_MILLIS);
+            }
+        }
+        fallbackCount.incrementAndGet();
+        return primary.getConnection();
+    }
+
+    /**
+     * Like Hikari: the credentials of the pools are used, with a warning.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        LOGGER.warn("the pools have their credentials, ignoring the given ones");
+        return getConnection();
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("replicas", replicas.size());
+        metrics.put("primaryConnections", primaryCount.get());
+        metrics.put("replicaConnections", replicaCount.get());
+        metrics.put("fallbacksToPrimary", fallbackCount.get());
+        return metrics;
+    }
+
+    /**
+     * Stops monitoring the primary and shuts down the replica pools. Called
+     * when the application context closes.
+     */
+    public void close() {
+        primary.close();
+        for (MonitoredPool replica : replicas) {
+            replica.shutdown();
+        }
+    }
+}
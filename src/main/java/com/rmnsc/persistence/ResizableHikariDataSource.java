@@ -0,0 +1,49 @@
+package com.rmnsc.persistence;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * A Hikari pool whose size can change while it runs.
+ *
+ * The pool reads the minimum and maximum size from its configuration each
+ * time it adds connections, so changing them there is enough. A larger
+ * maximum is used on the next checkout that finds no idle connection. A
+ * smaller one closes nothing: surplus connections go once they were idle for
+ * the idle timeout.
+ *
+ * @author Thomas
+ */
+public final class ResizableHikariDataSource extends HikariDataSource {
+
+    private final HikariConfig config;
+
+    /**
+     * @param config the configuration, not to be changed by anyone else
+     */
+    public ResizableHikariDataSource(HikariConfig config) {
+        super(config);
+        this.config = config;
+    }
+
+    public synchronized int getMinimumPoolSize() {
+        return config.getMinimumPoolSize();
+    }
+
+    public synchronized int getMaximumPoolSize() {
+        return config.getMaximumPoolSize();
+    }
+
+    /**
+     * @param minimumPoolSize connections kept open even when idle
+     * @param maximumPoolSize connections open at most
+     */
+    public synchronized void resize(int minimumPoolSize, int maximumPoolSize) {
+        if (minimumPoolSize < 0 || maximumPoolSize < 1 || minimumPoolSize > maximumPoolSize) {
+            throw new IllegalArgumentException("invalid pool size: " + minimumPoolSize + ".." + maximumPoolSize);
+        }
+        // Hikari reads them without synchronization, it sees them eventually.
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setMinimumPoolSize(minimumPoolSize);
+    }
+}
@@ -0,0 +1,139 @@
+package com.rmnsc.persistence;
+
+import com.rmnsc.metrics.LatencyHistogram;
+import com.rmnsc.metrics.MetricsRegistry;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the executions of each {@link PreparedSql}, keyed by the name of its
+ * {@link AutowireSql} field: how often, how long, how many rows, how often it
+ * failed.
+ *
+ * Executions slower than the threshold are logged with the shape of their
+ * arguments, i.e. type and length, never the values: they may be personal.
+ *
+ * @author Thomas
+ */
+public final class StatementMetrics implements MetricsRegistry.Source {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatementMetrics.class);
+
+    /**
+     * The numbers of one statement.
+     */
+    static final class Stats {
+
+        private final String id;
+        private final long slowNanos;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong rowCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+        private final AtomicLong slowCount = new AtomicLong();
+
+        Stats(String id, long slowNanos) {
+            this.id = id;
+            this.slowNanos = slowNanos;
+        }
+
+        /**
+         * @param nanos how long it took
+         * @param rows rows returned or affected
+         * @param failed whether it threw
+         * @param parameterNames the names of the arguments
+         * @param args the arguments, of the first execution for batches
+         * @param batchSize how many executions, 1 if not batched
+         */
+        void record(long nanos, long rows, boolean failed, List<String> parameterNames, Object[] args,
+                int batchSize) {
+            latency.record(nanos);
+            rowCount.addAndGet(rows);
+            if (failed) {
+                failureCount.incrementAndGet();
+            }
+            if (slowNanos > 0 && nanos > slowNanos) {
+                slowCount.incrementAndGet();
+                LOGGER.warn("slow statement {} took {}ms, {} rows{}, {}: {}",
+                        id, TimeUnit.NANOSECONDS.toMillis(nanos), rows, failed ? ", failed" : "",
+                        batchSize == 1 ? "args" : "batch of " + batchSize + ", first args",
+                        describeShape(parameterNames, args));
+            }
+        }
+
+        Map<String, Object> getMetrics() {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            long executions = latency.getCount();
+            metrics.put("executions", executions);
+            metrics.put("failures", failureCount.get());
+            metrics.put("slow", slowCount.get());
+            metrics.put("rows", rowCount.get());
+            metrics.put("meanRows", executions == 0 ? 0.0 : (double) rowCount.get() / executions);
+            metrics.put("latency", latency.getMetrics());
+            return metrics;
+        }
+    }
+
+    static String describeShape(List<String> parameterNames, Object[] args) {
+        StringBuilder shape = new StringBuilder("(");
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                shape.append(", ");
+            }
+            shape.append(i < parameterNames.size() ? parameterNames.get(i) : "?").append(": ");
+            Object arg = args[i];
+            if (arg == null) {
+                shape.append("null");
+            } else if (arg instanceof CharSequence) {
+                shape.append("String[").append(((CharSequence) arg).length()).append(']');
+            } else if (arg instanceof byte[]) {
+                shape.append("byte[").append(((byte[]) arg).length).append(']');
+            } else {
+                shape.append(arg.getClass().getSimpleName());
+            }
+        }
+        return shape.append(')').toString();
+    }
+
+    private final long slowNanos;
+    private final ConcurrentMap<String, Stats> statsById = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param slowMillis log executions that take longer, 0 never
+     */
+    public StatementMetrics(long slowMillis) {
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+    }
+
+    /**
+     * @param id the name of the statement, statements of the same name share
+     * their numbers
+     * @return the numbers of the statement, created on first use.
+     */
+    Stats forStatement(String id) {
+        Stats stats = statsById.get(id);
+        if (stats == null) {
+            Stats newStats = new Stats(id, slowNanos);
+            stats = statsById.putIfAbsent(id, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, Stats> entry : statsById.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().getMetrics());
+        }
+        return metrics;
+    }
+}
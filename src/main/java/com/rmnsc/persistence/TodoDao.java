@@ -2,6 +2,10 @@
 package com.rmnsc.persistence;
 
 import com.rmnsc.domain.TodoItem;
+import com.rmnsc.domain.TodoItemHandler;
+import com.rmnsc.domain.TodoPage;
+import java.util.Collection;
+import java.util.List;
 
 /**
  *
@@ -11,8 +15,47 @@ public interface TodoDao {
 
     public void store(TodoItem item);
 
+    /**
+     * Stores all items with a handful of round trips.
+     *
+     * @param items the items to store
+     */
+    public void storeAll(Collection<TodoItem> items);
+
     public Iterable<TodoItem> getAll();
 
+    /**
+     * Reads all items through a cursor, a fetch size at a time. Only a
+     * fetch size of items is in memory at once, however many there are.
+     * Must run in a transaction, which stays open until the handler saw the
+     * last item.
+     *
+     * @param handler gets the items in turn
+     */
+    public void forEach(TodoItemHandler handler);
+
     public TodoItem getById(int id);
 
+    /**
+     * Reads the items after the cursor, in the order of their ids. Seeks to
+     * the cursor through the primary key index, so every page costs the
+     * same, however deep it is.
+     *
+     * @param cursor where the page starts, from {@link TodoPage#getNextCursor()}.
+     * null for the first page.
+     * @param pageSize how many items at most
+     * @return the page
+     */
+    public TodoPage getPage(Long cursor, int pageSize);
+
+    /**
+     * Full-text search of the descriptions, through an index. All words of
+     * the query must match, ignoring case.
+     *
+     * @param query words to search for
+     * @param limit how many items at most
+     * @return the matches, best first
+     */
+    public List<TodoItem> search(String query, int limit);
+
 }
\ No newline at end of file
@@ -1,10 +1,24 @@
 package com.rmnsc.persistence;
 
 import com.rmnsc.domain.TodoItem;
+import com.rmnsc.domain.TodoItemHandler;
+import com.rmnsc.domain.TodoPage;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -16,32 +30,168 @@ import org.springframework.transaction.annotation.Transactional;
 @Transactional(propagation = Propagation.MANDATORY)
 public class TodoDaoJdbc extends AbstractJdbcTemplateDao implements TodoDao {
 
+    private static final int COPY_BUFFER_SIZE = 65536;
+    // Prepared on the server right away, so a batch parses it once for all rows.
+    private static final int BATCH_PREPARE_THRESHOLD = 1;
+
+    @AutowireSql
+    private PreparedSql dml_insert_todo_item;
+    @AutowireSql
+    private String dml_copy_todo_item;
+    @AutowireSql
+    private PreparedSql dml_query_todo_item_all;
     @AutowireSql
-    private String dml_insert_todo_item;
+    private PreparedSql dml_query_todo_item_by_id;
     @AutowireSql
-    private String dml_query_todo_item_all;
+    private PreparedSql dml_query_todo_item_page;
+    @AutowireSql
+    private PreparedSql dml_query_todo_item_search;
+
+    private final int copyThreshold;
+    private final int fetchSize;
 
-    public TodoDaoJdbc(NamedParameterJdbcOperations jdbcOperations) {
+    /**
+     * @param jdbcOperations the operations to use
+     * @param copyThreshold from how many items on storeAll uses COPY instead
+     * of a JDBC batch
+     * @param fetchSize how many rows forEach fetches per round trip
+     */
+    public TodoDaoJdbc(NamedParameterJdbcOperations jdbcOperations, int copyThreshold, int fetchSize) {
         super(jdbcOperations);
+        this.copyThreshold = copyThreshold;
+        this.fetchSize = fetchSize;
     }
 
     @Override
     public void store(TodoItem item) {
-        jdbcOperations.update(
-                dml_insert_todo_item,
-                new MapSqlParameterSource(
-                "description", item.getDescription()));
+        dml_insert_todo_item.update(jdbcOperations.getJdbcOperations(), item.getDescription());
+    }
+
+    @Override
+    public void storeAll(Collection<TodoItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        if (items.size() < copyThreshold) {
+            batchInsert(items);
+        } else {
+            copyIn(items);
+        }
+    }
+
+    /**
+     * One round trip per batch instead of one per item.
+     */
+    private void batchInsert(Collection<TodoItem> items) {
+        List<Object[]> batchArgs = new ArrayList<>(items.size());
+        for (TodoItem item : items) {
+            batchArgs.add(new Object[]{item.getDescription()});
+        }
+        dml_insert_todo_item.batchUpdate(jdbcOperations.getJdbcOperations(), batchArgs, BATCH_PREPARE_THRESHOLD);
+    }
+
+    /**
+     * Streams the rows to Postgres, which parses them in bulk. Uses the
+     * connection of the current transaction.
+     */
+    private void copyIn(final Collection<TodoItem> items) {
+        jdbcOperations.getJdbcOperations().execute(new ConnectionCallback<Long>() {
+            @Override
+            public Long doInConnection(Connection connection) throws SQLException {
+                PGCopyOutputStream out = new PGCopyOutputStream(
+                        connection.unwrap(PGConnection.class), dml_copy_todo_item, COPY_BUFFER_SIZE);
+                try {
+                    // pgjdbc always talks UTF-8 to the server.
+                    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    for (TodoItem item : items) {
+                        writeCopyText(writer, item.getDescription());
+                        writer.write('\n');
+                    }
+                    writer.flush();
+                    return out.endCopy();
+                } catch (IOException ex) {
+                    throw new SQLException("failed to stream rows to COPY", ex);
+                } finally {
+                    if (out.isActive()) {
+                        out.cancelCopy();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Escapes a column value for the text format of COPY.
+     */
+    static void writeCopyText(Writer writer, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
     }
 
     @Override
     public Iterable<TodoItem> getAll() {
-        return jdbcOperations.query(dml_query_todo_item_all, TODO_MAPPER);
+        return dml_query_todo_item_all.query(jdbcOperations.getJdbcOperations(), TODO_MAPPER);
+    }
+
+    @Override
+    public void forEach(final TodoItemHandler handler) {
+        dml_query_todo_item_all.queryStreaming(jdbcOperations.getJdbcOperations(), fetchSize, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                try {
+                    handler.handle(TODO_MAPPER.mapRow(rs, rs.getRow()));
+                } catch (IOException ex) {
+                    throw new SQLException("failed to handle todo item", ex);
+                }
+            }
+        });
     }
 
     @Override
     public TodoItem getById(int id) {
-        return jdbcOperations.queryForObject(dml_insert_todo_item, new MapSqlParameterSource("todo_item_id", id), TODO_MAPPER);
+        return DataAccessUtils.requiredSingleResult(
+                dml_query_todo_item_by_id.query(jdbcOperations.getJdbcOperations(), TODO_MAPPER, id));
     }
+    @Override
+    public TodoPage getPage(Long cursor, int pageSize) {
+        final List<TodoItem> items = new ArrayList<>(pageSize + 1);
+        final List<Long> ids = new ArrayList<>(pageSize + 1);
+        // One more to find out whether there is a next page.
+        dml_query_todo_item_page.query(jdbcOperations.getJdbcOperations(), new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                ids.add(rs.getLong("todo_item_id"));
+                items.add(TODO_MAPPER.mapRow(rs, rs.getRow()));
+            }
+        }, cursor == null ? Long.MIN_VALUE : cursor, pageSize + 1);
+        if (items.size() <= pageSize) {
+            return new TodoPage(items, null);
+        }
+        return new TodoPage(items.subList(0, pageSize), ids.get(pageSize - 1));
+    }
+
+    @Override
+    public List<TodoItem> search(String query, int limit) {
+        return dml_query_todo_item_search.query(jdbcOperations.getJdbcOperations(), TODO_MAPPER, query, limit);
+    }
+
     private static final RowMapper<TodoItem> TODO_MAPPER = new RowMapper<TodoItem>() {
         @Override
         public TodoItem mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -0,0 +1,529 @@
+package com.rmnsc.persistence;
+
+import com.rmnsc.domain.TodoItem;
+import com.rmnsc.domain.TodoItemHandler;
+import com.rmnsc.domain.TodoPage;
+import com.rmnsc.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+/**
+ * Keeps the items in memory, for running without a database: locally, on a
+ * single node, or to measure the rest of the application without one.
+ *
+ * Items are only appended and their id is their position, so the index is a
+ * pair of primitive arrays: where the description of an id starts and how
+ * long it is. Descriptions are stored UTF-8 encoded off the heap, in direct
+ * buffers of a megabyte, so the collector never has to look at them, however
+ * many there are.
+ *
+ * Reads take no locks. Writes append under one lock and publish all items of
+ * a call at once, by raising the item count. Readers read the count first,
+ * and since nothing written is ever changed, everything up to it is
+ * complete.
+ *
+ * Search goes through an inverted index from each word, in lower case, to the
+ * ids of the items containing it. Like the 'simple' configuration of
+ * Postgres: no stemming, no stop words. Matches are ranked by how often the
+ * words occur.
+ *
+ * With a snapshot file, the items are loaded from it on creation, through a
+ * memory mapping, and saved to it on close. Items stored since the last close
+ * are lost if the process dies.
+ *
+ * @author Thomas
+ */
+public class TodoDaoOffHeap implements TodoDao, MetricsRegistry.Source {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TodoDaoOffHeap.class);
+
+    static final int SEGMENT_SIZE = 1 << 20;
+    private static final int INITIAL_CAPACITY = 1024;
+    // "TDO" and the version of the format.
+    private static final int SNAPSHOT_MAGIC = 0x54444f01;
+    private static final int SNAPSHOT_HEADER_SIZE = 8;
+    // The largest part of the snapshot mapped at once.
+    private static final int SNAPSHOT_MAP_SIZE = 1 << 30;
+    private static final int SNAPSHOT_BATCH_SIZE = 1024;
+
+    /**
+     * Where the descriptions are. Replaced when it grows, the arrays of the
+     * old one are copied up to the count at that time.
+     */
+    private static final class Index {
+
+        private final ByteBuffer[] segments;
+        // Segment in the high, offset in the low 32 bits, by id - 1.
+        private final long[] addresses;
+        private final int[] lengths;
+
+        Index(ByteBuffer[] segments, long[] addresses, int[] lengths) {
+            this.segments = segments;
+            this.addresses = addresses;
+            this.lengths = lengths;
+        }
+
+        Index withCapacity(int capacity) {
+            return new Index(segments, Arrays.copyOf(addresses, capacity), Arrays.copyOf(lengths, capacity));
+        }
+
+        Index withSegment(ByteBuffer segment) {
+            ByteBuffer[] newSegments = Arrays.copyOf(segments, segments.length + 1);
+            newSegments[segments.length] = segment;
+            return new Index(newSegments, addresses, lengths);
+        }
+
+        String read(int id) {
+            long address = addresses[id - 1];
+            // A view of its own, the position of a buffer is not thread-safe.
+            ByteBuffer segment = segments[(int) (address >>> 32)].duplicate();
+            segment.position((int) address);
+            byte[] bytes = new byte[lengths[id - 1]];
+            segment.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The ids of the items containing a word, ascending.
+     */
+    private static final class Postings {
+
+        private volatile int[] ids = new int[4];
+        private volatile int size;
+
+        /**
+         * Only called by the writer.
+         */
+        void add(int id) {
+            int[] current = ids;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+                ids = current;
+            }
+            current[size] = id;
+            size++;
+        }
+
+        /**
+         * @return the ids, valid up to {@link #getSize(int)}, to be read after
+         * it.
+         */
+        int[] getIds() {
+            return ids;
+        }
+
+        /**
+         * @param maxId the item count the reader saw
+         * @return how many ids are at most maxId
+         */
+        int getSize(int maxId) {
+            int currentSize = size;
+            int[] current = ids;
+            int bound = Arrays.binarySearch(current, 0, currentSize, maxId);
+            return bound >= 0 ? bound + 1 : -bound - 1;
+        }
+    }
+
+    /**
+     * An item ready to be appended.
+     */
+    private static final class Encoded {
+
+        private final ByteBuffer bytes;
+        private final Set<String> words;
+
+        Encoded(ByteBuffer bytes, Set<String> words) {
+            this.bytes = bytes;
+            this.words = words;
+        }
+    }
+
+    private final Path snapshotFile;
+    private final Object writeLock = new Object();
+    private final ConcurrentMap<String, Postings> postingsByWord = new ConcurrentHashMap<>();
+    private volatile Index index = new Index(new ByteBuffer[0], new long[INITIAL_CAPACITY], new int[INITIAL_CAPACITY]);
+    private volatile int count;
+
+    // Guarded by the write lock, published for the metrics.
+    private ByteBuffer writeBuffer;
+    private volatile long storedBytes;
+    private volatile long allocatedBytes;
+    private boolean closed;
+
+    /**
+     * @param snapshotFile where to load the items from and save them to, null
+     * to keep them only while running
+     * @throws IOException if the snapshot exists but cannot be read
+     */
+    public TodoDaoOffHeap(Path snapshotFile) throws IOException {
+        this.snapshotFile = snapshotFile;
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            long start = System.currentTimeMillis();
+            loadSnapshot(snapshotFile);
+            LOGGER.info("loaded {} todo items from {} in {}ms",
+                    count, snapshotFile, System.currentTimeMillis() - start);
+        }
+    }
+
+    @Override
+    public void store(TodoItem item) {
+        append(Collections.singletonList(encode(item.getDescription())));
+    }
+
+    @Override
+    public void storeAll(Collection<TodoItem> items) {
+        List<Encoded> encodedItems = new ArrayList<>(items.size());
+        for (TodoItem item : items) {
+            encodedItems.add(encode(item.getDescription()));
+        }
+        append(encodedItems);
+    }
+
+    private static Encoded encode(String description) {
+        return new Encoded(ByteBuffer.wrap(description.getBytes(StandardCharsets.UTF_8)), words(description));
+    }
+
+    /**
+     * Appends the items and publishes them together, or none of them.
+     */
+    private void append(List<Encoded> encodedItems) {
+        if (encodedItems.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IllegalStateException("todo store closed");
+            }
+            int oldCount = count;
+            int newCount = oldCount + encodedItems.size();
+            if (newCount < 0) {
+                throw new IllegalStateException("todo store full");
+            }
+            Index current = index;
+            if (newCount > current.lengths.length) {
+                long capacity = Math.max(newCount, current.lengths.length * 2L);
+                current = current.withCapacity((int) Math.min(Integer.MAX_VALUE - 8, capacity));
+                index = current;
+            }
+            int id = oldCount;
+            long bytes = 0;
+            for (Encoded encoded : encodedItems) {
+                int length = encoded.bytes.remaining();
+                if (writeBuffer == null || writeBuffer.remaining() < length) {
+                    ByteBuffer segment = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, length));
+                    current = current.withSegment(segment);
+                    index = current;
+                    writeBuffer = segment.duplicate();
+                    allocatedBytes += segment.capacity();
+                }
+                current.addresses[id] = ((long) (current.segments.length - 1) << 32) | writeBuffer.position();
+                current.lengths[id] = length;
+                writeBuffer.put(encoded.bytes);
+                bytes += length;
+                id++;
+            }
+            // Only once all bytes are in, nothing can fail half way anymore.
+            id = oldCount;
+            for (Encoded encoded : encodedItems) {
+                id++;
+                for (String word : encoded.words) {
+                    Postings postings = postingsByWord.get(word);
+                    if (postings == null) {
+                        postings = new Postings();
+                        postingsByWord.put(word, postings);
+                    }
+                    postings.add(id);
+                }
+            }
+            storedBytes += bytes;
+            count = newCount;
+        }
+    }
+
+    @Override
+    public Iterable<TodoItem> getAll() {
+        int currentCount = count;
+        Index current = index;
+        List<TodoItem> items = new ArrayList<>(currentCount);
+        for (int id = 1; id <= currentCount; id++) {
+            items.add(new TodoItem(current.read(id)));
+        }
+        return items;
+    }
+
+    @Override
+    public void forEach(TodoItemHandler handler) {
+        int currentCount = count;
+        Index current = index;
+        for (int id = 1; id <= currentCount; id++) {
+            try {
+                handler.handle(new TodoItem(current.read(id)));
+            } catch (IOException ex) {
+                throw new DataAccessResourceFailureException("failed to handle todo item", ex);
+            }
+        }
+    }
+
+    @Override
+    public TodoItem getById(int id) {
+        int currentCount = count;
+        if (id < 1 || id > currentCount) {
+            throw new EmptyResultDataAccessException(1);
+        }
+        return new TodoItem(index.read(id));
+    }
+
+    @Override
+    public TodoPage getPage(Long cursor, int pageSize) {
+        int currentCount = count;
+        Index current = index;
+        if (cursor != null && cursor >= currentCount) {
+            return new TodoPage(new ArrayList<TodoItem>(), null);
+        }
+        int first = cursor == null ? 1 : (int) Math.max(1, cursor + 1);
+        int last = (int) Math.min(currentCount, (long) first + pageSize - 1);
+        List<TodoItem> items = new ArrayList<>(Math.max(0, last - first + 1));
+        for (int id = first; id <= last; id++) {
+            items.add(new TodoItem(current.read(id)));
+        }
+        return new TodoPage(items, last < currentCount ? Long.valueOf(last) : null);
+    }
+
+    @Override
+    public List<TodoItem> search(String query, int limit) {
+        Set<String> queryWords = words(query);
+        if (queryWords.isEmpty() || limit < 1) {
+            return new ArrayList<>();
+        }
+        int currentCount = count;
+        Index current = index;
+        int wordCount = queryWords.size();
+        int[][] ids = new int[wordCount][];
+        int[] sizes = new int[wordCount];
+        int rarest = 0;
+        int i = 0;
+        for (String word : queryWords) {
+            Postings postings = postingsByWord.get(word);
+            if (postings == null) {
+                return new ArrayList<>();
+            }
+            sizes[i] = postings.getSize(currentCount);
+            ids[i] = postings.getIds();
+            if (sizes[i] < sizes[rarest]) {
+                rarest = i;
+            }
+            i++;
+        }
+        // Best last: most occurrences, then the lowest id. Packed to compare cheaply.
+        PriorityQueue<Long> best = new PriorityQueue<>(Math.min(limit, sizes[rarest]) + 1);
+        candidates:
+        for (int c = 0; c < sizes[rarest]; c++) {
+            int id = ids[rarest][c];
+            for (int w = 0; w < wordCount; w++) {
+                if (w != rarest && Arrays.binarySearch(ids[w], 0, sizes[w], id) < 0) {
+                    continue candidates;
+                }
+            }
+            int occurrences = 0;
+            for (String word : wordList(current.read(id))) {
+                if (queryWords.contains(word)) {
+                    occurrences++;
+                }
+            }
+            best.add(((long) occurrences << 32) | (Integer.MAX_VALUE - id));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        TodoItem[] items = new TodoItem[best.size()];
+        for (int r = items.length - 1; r >= 0; r--) {
+            int id = Integer.MAX_VALUE - (int) (best.poll() & 0xffffffffL);
+            items[r] = new TodoItem(current.read(id));
+        }
+        return new ArrayList<>(Arrays.asList(items));
+    }
+
+    /**
+     * @return the distinct words of the text, in lower case.
+     */
+    private static Set<String> words(String text) {
+        return new LinkedHashSet<>(wordList(text));
+    }
+
+    /**
+     * Words are runs of letters and digits, everything else separates them.
+     */
+    private static List<String> wordList(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start == -1) {
+                start = i;
+            } else if (!wordChar && start != -1) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * The snapshot is the magic number, the item count, then length and UTF-8
+     * bytes of each description.
+     */
+    private void loadSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, SNAPSHOT_HEADER_SIZE));
+            if (size < SNAPSHOT_HEADER_SIZE || header.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("no todo snapshot: " + file);
+            }
+            int itemCount = header.getInt();
+            long position = SNAPSHOT_HEADER_SIZE;
+            long mappedStart = 0;
+            ByteBuffer mapped = header;
+            List<Encoded> batch = new ArrayList<>(SNAPSHOT_BATCH_SIZE);
+            for (int i = 0; i < itemCount; i++) {
+                if (position + 4 > size) {
+                    throw new IOException("todo snapshot truncated at item " + i + ": " + file);
+                }
+                if (position + 4 > mappedStart + mapped.limit()) {
+                    mappedStart = position;
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(size - position, SNAPSHOT_MAP_SIZE));
+                }
+                int length = mapped.getInt((int) (position - mappedStart));
+                position += 4;
+                if (length < 0 || position + length > size) {
+                    throw new IOException("todo snapshot truncated at item " + i + ": " + file);
+                }
+                if (position + length > mappedStart + mapped.limit()) {
+                    mappedStart = position;
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(size - position, Math.max(length, SNAPSHOT_MAP_SIZE)));
+                }
+                ByteBuffer bytes = mapped.duplicate();
+                bytes.position((int) (position - mappedStart));
+                bytes.limit(bytes.position() + length);
+                position += length;
+                String description = StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+                batch.add(new Encoded(bytes, words(description)));
+                if (batch.size() == SNAPSHOT_BATCH_SIZE) {
+                    append(batch);
+                    batch.clear();
+                }
+            }
+            append(batch);
+        }
+    }
+
+    /**
+     * Written to a new file by one gathering write per batch, straight from
+     * the segments, then moved over the old one.
+     */
+    private void saveSnapshot(Path file) throws IOException {
+        int currentCount = count;
+        Index current = index;
+        Path absoluteFile = file.toAbsolutePath();
+        Path tmpFile = absoluteFile.resolveSibling(absoluteFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+            header.putInt(SNAPSHOT_MAGIC).putInt(currentCount).flip();
+            writeFully(channel, new ByteBuffer[]{header});
+            ByteBuffer lengths = ByteBuffer.allocateDirect(4 * SNAPSHOT_BATCH_SIZE);
+            List<ByteBuffer> batch = new ArrayList<>(2 * SNAPSHOT_BATCH_SIZE);
+            for (int id = 1; id <= currentCount; id++) {
+                int length = current.lengths[id - 1];
+                lengths.putInt(length);
+                ByteBuffer lengthBytes = lengths.duplicate();
+                lengthBytes.position(lengths.position() - 4);
+                lengthBytes.limit(lengths.position());
+                long address = current.addresses[id - 1];
+                ByteBuffer bytes = current.segments[(int) (address >>> 32)].duplicate();
+                bytes.position((int) address);
+                bytes.limit((int) address + length);
+                batch.add(lengthBytes);
+                batch.add(bytes);
+                if (batch.size() == 2 * SNAPSHOT_BATCH_SIZE || id == currentCount) {
+                    writeFully(channel, batch.toArray(new ByteBuffer[batch.size()]));
+                    batch.clear();
+                    lengths.clear();
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(tmpFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("items", count);
+        metrics.put("words", postingsByWord.size());
+        metrics.put("segments", index.segments.length);
+        metrics.put("storedBytes", storedBytes);
+        metrics.put("offHeapBytes", allocatedBytes);
+        metrics.put("snapshot", snapshotFile == null ? null : snapshotFile.toString());
+        return metrics;
+    }
+
+    /**
+     * Saves the snapshot, if any. Stores fail from now on, so nothing is
+     * lost silently. Called when the application context closes.
+     */
+    public void close() {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (snapshotFile == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            saveSnapshot(snapshotFile);
+            LOGGER.info("saved {} todo items to {} in {}ms",
+                    count, snapshotFile, System.currentTimeMillis() - start);
+        } catch (IOException ex) {
+            LOGGER.error("failed to save todo items to " + snapshotFile, ex);
+        }
+    }
+}
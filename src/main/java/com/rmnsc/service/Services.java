@@ -1,5 +1,7 @@
 package com.rmnsc.service;
 
+import com.rmnsc.config.AppConfig;
+import com.rmnsc.metrics.MetricsRegistry;
 import com.rmnsc.persistence.Daos;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -16,9 +18,32 @@ public class Services {
 
     @Autowired
     private Daos daos;
+    @Autowired
+    private AppConfig appConfig;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
 
+    /**
+     * Closed when the DispatcherServlet closes the application context, after
+     * the container drained all requests. So queued items are still stored.
+     */
     @Bean
     public TodoService todoService() {
+        if (!appConfig.isWriteBehindEnabled()) {
+            return transactionalTodoService();
+        }
+        WriteBehindTodoService writeBehindTodoService = new WriteBehindTodoService(transactionalTodoService(),
+                appConfig.getWriteBehindBatchSize(), appConfig.getWriteBehindMaxDelayMillis(),
+                appConfig.getWriteBehindCapacity());
+        metricsRegistry.register("writeBehind", writeBehindTodoService);
+        return writeBehindTodoService;
+    }
+
+    /**
+     * A bean of its own, so it gets its transactions.
+     */
+    @Bean
+    public TodoService transactionalTodoService() {
         return new TodoServiceImpl(daos.todoDao());
     }
 }
\ No newline at end of file
@@ -1,6 +1,10 @@
 package com.rmnsc.service;
 
 import com.rmnsc.domain.TodoItem;
+import com.rmnsc.domain.TodoItemHandler;
+import com.rmnsc.domain.TodoPage;
+import java.util.Collection;
+import java.util.List;
 
 /**
  *
@@ -10,5 +14,34 @@ public interface TodoService {
 
     public Iterable<TodoItem> getAllToDos();
 
+    /**
+     * Passes all items to the handler as they are read, in one read-only
+     * transaction.
+     *
+     * @param handler gets the items in turn
+     */
+    public void forEachToDo(TodoItemHandler handler);
+
+    /**
+     * @param cursor where the page starts, null for the first page
+     * @param pageSize how many items at most
+     * @return the page
+     */
+    public TodoPage getPage(Long cursor, int pageSize);
+
+    /**
+     * @param query words to search for, all must match
+     * @param limit how many items at most
+     * @return the matching items, best first. Empty for a blank query.
+     */
+    public List<TodoItem> search(String query, int limit);
+
     public void store(TodoItem item);
+
+    /**
+     * Stores all items in one transaction.
+     *
+     * @param items the items to store
+     */
+    public void storeAll(Collection<TodoItem> items);
 }
\ No newline at end of file
@@ -1,7 +1,12 @@
 package com.rmnsc.service;
 
 import com.rmnsc.domain.TodoItem;
+import com.rmnsc.domain.TodoItemHandler;
+import com.rmnsc.domain.TodoPage;
 import com.rmnsc.persistence.TodoDao;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -20,12 +25,39 @@ public class TodoServiceImpl implements TodoService {
     }
 
     @Override
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
     public Iterable<TodoItem> getAllToDos() {
         return todoDao.getAll();
     }
 
+    @Override
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    public void forEachToDo(TodoItemHandler handler) {
+        todoDao.forEach(handler);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    public TodoPage getPage(Long cursor, int pageSize) {
+        return todoDao.getPage(cursor, pageSize);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    public List<TodoItem> search(String query, int limit) {
+        if (query.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return todoDao.search(query, limit);
+    }
+
     @Override
     public void store(TodoItem item) {
         todoDao.store(item);
     }
+
+    @Override
+    public void storeAll(Collection<TodoItem> items) {
+        todoDao.storeAll(items);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,250 @@
+package com.rmnsc.service;
+
+import com.rmnsc.domain.TodoItem;
+import com.rmnsc.domain.TodoItemHandler;
+import com.rmnsc.domain.TodoPage;
+import com.rmnsc.metrics.MetricsRegistry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Group commit for {@link #store(TodoItem)}: concurrent calls are queued and a
+ * writer thread stores them with one {@link TodoService#storeAll(Collection)},
+ * so they share one transaction and one commit. A batch is stored once it is
+ * full, or once its first item waited for the maximum delay.
+ *
+ * Each caller waits until its batch is committed, and gets the exception if
+ * it failed. So the item is visible right after the call, as without
+ * write-behind. A failing item fails its whole batch.
+ *
+ * Everything else is passed on to the wrapped service.
+ *
+ * @author Thomas
+ */
+final class WriteBehindTodoService implements TodoService, MetricsRegistry.Source {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindTodoService.class);
+
+    // How long to wait for items before checking whether the service was closed.
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+    private static final long MAX_CLOSE_MILLIS = 30000;
+
+    /**
+     * An item waiting to be stored, and its caller waiting for the outcome.
+     */
+    private static final class Pending {
+
+        private final TodoItem item;
+        private final long enqueuedNanos = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile RuntimeException failure;
+
+        Pending(TodoItem item) {
+            this.item = item;
+        }
+
+        void complete(RuntimeException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+    }
+
+    private final TodoService delegate;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong itemCount = new AtomicLong();
+    private final AtomicLong failedBatchCount = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private volatile int maxObservedBatchSize;
+    private volatile long maxFlushNanos;
+    private volatile long lastFlushNanos;
+
+    /**
+     * @param delegate transactional service to store the batches with
+     * @param maxBatchSize how many items to store at most in one transaction
+     * @param maxDelayMillis how long the first item of a batch waits for more
+     * @param capacity how many items may wait, store blocks while full
+     */
+    WriteBehindTodoService(TodoService delegate, int maxBatchSize, long maxDelayMillis, int capacity) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread("write-behind") {
+            @Override
+            public void run() {
+                writeBatches();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public Iterable<TodoItem> getAllToDos() {
+        return delegate.getAllToDos();
+    }
+
+    @Override
+    public void forEachToDo(TodoItemHandler handler) {
+        delegate.forEachToDo(handler);
+    }
+
+    @Override
+    public TodoPage getPage(Long cursor, int pageSize) {
+        return delegate.getPage(cursor, pageSize);
+    }
+
+    @Override
+    public List<TodoItem> search(String query, int limit) {
+        return delegate.search(query, limit);
+    }
+
+    @Override
+    public void storeAll(Collection<TodoItem> items) {
+        delegate.storeAll(items);
+    }
+
+    @Override
+    public void store(TodoItem item) {
+        Pending pending = new Pending(Objects.requireNonNull(item, "item must not be null"));
+        try {
+            if (closed) {
+                throw new IllegalStateException("closed");
+            }
+            queue.put(pending);
+            while (!pending.done.await(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                // Closed between the check and the put.
+                if (!writer.isAlive() && queue.remove(pending)) {
+                    throw new IllegalStateException("closed");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            // The item may still be stored.
+            throw new IllegalStateException("interrupted while storing " + item.getDescription(), ex);
+        }
+        if (pending.failure != null) {
+            throw pending.failure;
+        }
+    }
+
+    private void writeBatches() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            try {
+                Pending first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueuedNanos + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException ex) {
+                // Nobody interrupts the writer, close lets it run dry.
+                Thread.currentThread().interrupt();
+                queue.drainTo(batch);
+                LOGGER.warn("write-behind writer interrupted, storing {} items and stopping", batch.size());
+                flush(batch);
+                return;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        List<TodoItem> items = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            items.add(pending.item);
+        }
+        RuntimeException failure = null;
+        long start = System.nanoTime();
+        try {
+            delegate.storeAll(items);
+        } catch (RuntimeException ex) {
+            LOGGER.warn("failed to store batch of " + items.size() + " items", ex);
+            failedBatchCount.incrementAndGet();
+            failure = ex;
+        }
+        long duration = System.nanoTime() - start;
+        for (Pending pending : batch) {
+            pending.complete(failure);
+        }
+
+        batchCount.incrementAndGet();
+        itemCount.addAndGet(batch.size());
+        flushNanos.addAndGet(duration);
+        lastFlushNanos = duration;
+        // Only written by the writer thread.
+        if (duration > maxFlushNanos) {
+            maxFlushNanos = duration;
+        }
+        if (batch.size() > maxObservedBatchSize) {
+            maxObservedBatchSize = batch.size();
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        long batches = batchCount.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("queueDepth", queue.size());
+        metrics.put("batches", batches);
+        metrics.put("items", itemCount.get());
+        metrics.put("failedBatches", failedBatchCount.get());
+        metrics.put("maxBatchSize", maxObservedBatchSize);
+        metrics.put("meanBatchSize", batches == 0 ? 0.0 : (double) itemCount.get() / batches);
+        metrics.put("lastFlushMillis", lastFlushNanos / 1e6);
+        metrics.put("meanFlushMillis", batches == 0 ? 0.0 : flushNanos.get() / 1e6 / batches);
+        metrics.put("maxFlushMillis", maxFlushNanos / 1e6);
+        return metrics;
+    }
+
+    /**
+     * Stores what is queued and stops the writer. Called when the application
+     * context closes, after the container drained all requests.
+     */
+    public void close() {
+        closed = true;
+        try {
+            writer.join(MAX_CLOSE_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            LOGGER.warn("write-behind writer did not stop within {}ms, {} items queued",
+                    MAX_CLOSE_MILLIS, queue.size());
+        }
+        LOGGER.info("write-behind flushed {} items in {} batches, {} failed",
+                itemCount.get(), batchCount.get(), failedBatchCount.get());
+    }
+}
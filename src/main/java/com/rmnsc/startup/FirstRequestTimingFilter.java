@@ -0,0 +1,61 @@
+package com.rmnsc.startup;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Times the first request served after startup and then reports the whole
+ * startup timeline. Does nothing for all following requests, and ignores
+ * {@link WarmUp} requests.
+ *
+ * @author Thomas
+ */
+public class FirstRequestTimingFilter implements Filter {
+
+    private final StartupTimeline startupTimeline;
+    private final AtomicBoolean firstRequestServed;
+
+    public FirstRequestTimingFilter(StartupTimeline startupTimeline) {
+        this.startupTimeline = Objects.requireNonNull(startupTimeline, "startupTimeline must not be null");
+        this.firstRequestServed = new AtomicBoolean();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (firstRequestServed.get() || isWarmUp(request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            // Concurrent first requests: Only one of them gets reported.
+            if (firstRequestServed.compareAndSet(false, true)) {
+                startupTimeline.record(StartupTimeline.FIRST_REQUEST, start);
+                startupTimeline.report();
+            }
+        }
+    }
+
+    private static boolean isWarmUp(ServletRequest request) {
+        return request instanceof HttpServletRequest
+                && ((HttpServletRequest) request).getHeader(WarmUp.REQUEST_HEADER) != null;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
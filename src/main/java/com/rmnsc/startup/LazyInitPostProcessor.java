@@ -0,0 +1,28 @@
+package com.rmnsc.startup;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+
+/**
+ * Makes all application beans lazy, so only what the DispatcherServlet needs
+ * is created on startup. Everything else is created on first use, which is
+ * the warm-up for the request paths. Infrastructure beans stay as they are.
+ * A bean that cannot be created fails the first request using it, not the
+ * startup.
+ *
+ * @author Thomas
+ */
+final class LazyInitPostProcessor implements BeanFactoryPostProcessor {
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition beanDefinition = beanFactory.getBeanDefinition(beanName);
+            if (beanDefinition.getRole() == BeanDefinition.ROLE_APPLICATION && beanDefinition.isSingleton()) {
+                beanDefinition.setLazyInit(true);
+            }
+        }
+    }
+}
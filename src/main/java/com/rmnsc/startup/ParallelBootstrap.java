@@ -0,0 +1,160 @@
+package com.rmnsc.startup;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates independent, expensive objects in parallel while the rest of the
+ * application context starts up. The bean methods then take them, waiting if
+ * they are not done yet.
+ *
+ * In serial mode the tasks run when they are taken, on the thread that takes
+ * them. That's what a plain Spring refresh does.
+ *
+ * @author Thomas
+ */
+public final class ParallelBootstrap {
+
+    public static final String CONNECTION_POOL = "connectionPool";
+    public static final String MESSAGE_SOURCE = "messageSource";
+    public static final String TEMPLATE_ENGINE = "templateEngine";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelBootstrap.class);
+
+    /**
+     * Creates an object, and disposes it if nobody takes it.
+     *
+     * @param <T> type of the object
+     */
+    public abstract static class Task<T> implements Callable<T> {
+
+        /**
+         * Releases the resources of an object that was not taken, e.g. since
+         * the application context failed to start. Does nothing by default.
+         *
+         * @param result the object created by this task
+         */
+        protected void dispose(T result) {
+        }
+    }
+
+    private static final class Entry<T> {
+
+        private final Task<T> task;
+        private final FutureTask<T> future;
+
+        Entry(Task<T> task, FutureTask<T> future) {
+            this.task = task;
+            this.future = future;
+        }
+
+        void disposeResult() throws InterruptedException {
+            try {
+                task.dispose(future.get());
+            } catch (ExecutionException ex) {
+                // Nothing was created.
+            }
+        }
+    }
+
+    private final boolean parallel;
+    private final StartupTimeline startupTimeline;
+    private final Map<String, Entry<?>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param parallel whether to start the tasks right away, each in a thread
+     * of its own
+     * @param startupTimeline where to record the tasks
+     */
+    public ParallelBootstrap(boolean parallel, StartupTimeline startupTimeline) {
+        this.parallel = parallel;
+        this.startupTimeline = Objects.requireNonNull(startupTimeline, "startupTimeline must not be null");
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param <T> type of the object
+     * @param name name of the object, usually the bean name
+     * @param task creates the object
+     */
+    public <T> void submit(final String name, final Task<T> task) {
+        Objects.requireNonNull(name, "name must not be null");
+        Objects.requireNonNull(task, "task must not be null");
+        FutureTask<T> future = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                long start = System.currentTimeMillis();
+                T result = task.call();
+                startupTimeline.record(StartupTimeline.BOOTSTRAP_PREFIX + name, start);
+                return result;
+            }
+        });
+        if (entries.put(name, new Entry<>(task, future)) != null) {
+            throw new IllegalStateException("submitted twice: " + name);
+        }
+        if (parallel) {
+            Thread thread = new Thread(future, "bootstrap-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Takes the object, waiting for its task if necessary. Whoever takes it
+     * owns it from then on.
+     *
+     * @param <T> type of the object
+     * @param name name of the object
+     * @param type type of the object
+     * @return the object
+     * @throws IllegalStateException if nothing was submitted under that name,
+     * or if the task failed
+     */
+    public <T> T take(String name, Class<T> type) {
+        Entry<?> entry = entries.remove(name);
+        if (entry == null) {
+            throw new IllegalStateException("nothing submitted, or already taken: " + name);
+        }
+        // Runs the task right here, unless it already runs or ran.
+        entry.future.run();
+        try {
+            return type.cast(entry.future.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for " + name, ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("failed to create " + name, ex.getCause());
+        }
+    }
+
+    /**
+     * Disposes all objects nobody took.
+     */
+    public void close() {
+        for (Map.Entry<String, Entry<?>> entry : entries.entrySet()) {
+            // Tasks only run in serial mode once taken.
+            if (!parallel) {
+                continue;
+            }
+            LOGGER.info("disposing {}, it was never taken", entry.getKey());
+            try {
+                entry.getValue().disposeResult();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                LOGGER.warn("failed to dispose " + entry.getKey(), ex);
+            }
+        }
+        entries.clear();
+    }
+}
@@ -6,31 +6,45 @@ import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.ConsoleAppender;
-import ch.qos.logback.core.read.ListAppender;
 import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
 import ch.qos.logback.core.util.StatusPrinter;
 import com.rmnsc.config.AppConfig;
+import com.rmnsc.logging.AsyncBatchAppender;
+import com.rmnsc.logging.StartupBuffer;
+import com.rmnsc.metrics.MetricsRegistry;
+import com.rmnsc.persistence.PersistenceConfig;
+import com.rmnsc.web.WebConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.EnumSet;
-import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.FilterRegistration;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import javax.servlet.ServletException;
 import javax.servlet.ServletRegistration;
 import javax.servlet.SessionTrackingMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.MessageSource;
 import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
 import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.context.support.ServletContextResourceLoader;
 import org.springframework.web.filter.CharacterEncodingFilter;
 import org.springframework.web.servlet.DispatcherServlet;
 import org.springframework.web.util.HttpSessionMutexListener;
+import org.thymeleaf.spring4.SpringTemplateEngine;
 
 /**
  *
@@ -40,6 +54,11 @@ public class StartupServletContextListener implements ServletContextListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(StartupServletContextListener.class);
 
+    // The DispatcherServlet only closes its own context.
+    private GenericApplicationContext parentContext;
+    // Owns what the context did not take.
+    private ParallelBootstrap parallelBootstrap;
+
     private static PatternLayoutEncoder createLoggingEncoder(LoggerContext loggerContext) {
         PatternLayoutEncoder patternLayoutEncoder = new PatternLayoutEncoder();
         patternLayoutEncoder.setContext(loggerContext);
@@ -85,7 +104,7 @@ public class StartupServletContextListener implements ServletContextListener {
         return rollingFileAppender;
     }
 
-    private static void initializeLogback(AppConfig appConfig) {
+    private static void initializeLogback(AppConfig appConfig, Properties props) {
         // Inlitialize logback in code to avoid dependency on logback-config-dependency Janino
         // since there's really no need for it. Also more IDE support on logging changes.
 
@@ -104,15 +123,11 @@ public class StartupServletContextListener implements ServletContextListener {
         } else {
             throw new IllegalStateException("forgot to handle logging for profile: " + appConfig.getActiveProfile());
         }
+        // Written by a separate thread, if log.async is set.
+        appender = AsyncBatchAppender.wrapIfEnabled(appender, props);
 
-        // If there was a ListAppender buffering startup events, replay them.
-        // TODO: Way around hardcoded appender-name? share name in init-params?
-        // and init param is named...? maybe share name of init param in init param. huh. needs more indirection.
-        ListAppender<ILoggingEvent> startupBuffer = (ListAppender<ILoggingEvent>) rootLogger.getAppender("STARTUP_BUFFER");
-        List<ILoggingEvent> startupEvents = Collections.emptyList();
-        if (startupBuffer != null) {
-            startupEvents = startupBuffer.list;
-        }
+        // If the embedded container buffered startup events, replay them.
+        StartupBuffer startupBuffer = (StartupBuffer) rootLogger.getAppender(StartupBuffer.NAME);
 
         // Clear any previous configuration, e.g. default configuration.
         // Note: This has to be done directly before adding the new appenders.
@@ -124,9 +139,10 @@ public class StartupServletContextListener implements ServletContextListener {
         rootLogger.setLevel(level);
 
         // Replay all startup events, if any.
-        for (ILoggingEvent startupEvent : startupEvents) {
-            if (rootLogger.isEnabledFor(startupEvent.getLevel())) {
-                rootLogger.callAppenders(startupEvent);
+        if (startupBuffer != null) {
+            Map<String, Long> dropped = startupBuffer.replay(rootLogger);
+            if (!dropped.isEmpty()) {
+                LOGGER.warn("startup log buffer was full, dropped the oldest events: {}", dropped);
             }
         }
         StatusPrinter.printInCaseOfErrorsOrWarnings(loggerContext);
@@ -142,8 +158,55 @@ public class StartupServletContextListener implements ServletContextListener {
         return defaultProperties;
     }
 
+    private static void submitBootstrapTasks(ParallelBootstrap parallelBootstrap, final AppConfig appConfig,
+            final ServletContext servletContext, final StartupTimeline startupTimeline) {
+        // Items kept in memory need no database.
+        if (!appConfig.isTodoStoreInMemory()) {
+            parallelBootstrap.submit(ParallelBootstrap.CONNECTION_POOL, new ParallelBootstrap.Task<HikariDataSource>() {
+                @Override
+                public HikariDataSource call() {
+                    return PersistenceConfig.createConnectionPool(appConfig, startupTimeline);
+                }
+
+                @Override
+                protected void dispose(HikariDataSource connectionPool) {
+                    connectionPool.shutdown();
+                }
+            });
+        }
+
+        // Shared by both tasks, creating it is cheap.
+        final ReloadableResourceBundleMessageSource messageSource
+                = WebConfig.createMessageSource(appConfig, new ServletContextResourceLoader(servletContext));
+        parallelBootstrap.submit(ParallelBootstrap.MESSAGE_SOURCE, new ParallelBootstrap.Task<MessageSource>() {
+            @Override
+            public MessageSource call() {
+                // Loads and caches the message files of the locale, whatever the code.
+                for (Locale locale : WarmUp.findLocales(servletContext)) {
+                    messageSource.getMessage("", null, "", locale);
+                }
+                return messageSource;
+            }
+        });
+        parallelBootstrap.submit(ParallelBootstrap.TEMPLATE_ENGINE, new ParallelBootstrap.Task<SpringTemplateEngine>() {
+            @Override
+            public SpringTemplateEngine call() {
+                return WebConfig.createTemplateEngine(appConfig, messageSource);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StartupTimeline createStartupTimeline(ServletContext servletContext) {
+        // Phases recorded by the embedded container, if any.
+        Map<String, long[]> phases = (Map<String, long[]>) servletContext.getAttribute(StartupTimeline.PHASES_ATTRIBUTE);
+        File reportFile = (File) servletContext.getAttribute(StartupTimeline.REPORT_FILE_ATTRIBUTE);
+        return new StartupTimeline(phases, reportFile);
+    }
+
     @Override
     public void contextInitialized(ServletContextEvent sce) {
+        long start = System.currentTimeMillis();
         Properties defaults = readDefaultProperties();
 
         Properties props = new Properties(defaults);
@@ -152,19 +215,44 @@ public class StartupServletContextListener implements ServletContextListener {
         AppConfig appConfig = new AppConfig(props);
 
         // Initialize logging as early as possible, so no logging events are lost.
-        initializeLogback(appConfig);
+        initializeLogback(appConfig, props);
 
         // log only AFTER configuring the logger
         LOGGER.info("webapp context initialized");
 
-        ServletContext servletContext = sce.getServletContext();
+        final ServletContext servletContext = sce.getServletContext();
+
+        final StartupTimeline startupTimeline = createStartupTimeline(servletContext);
+
+        // Runs in the background while the rest starts up, if parallel.
+        parallelBootstrap = new ParallelBootstrap(appConfig.isParallelBootstrap(), startupTimeline);
+        submitBootstrapTasks(parallelBootstrap, appConfig, servletContext, startupTimeline);
 
-        AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext();
+        // Refreshed by the DispatcherServlet on init.
+        AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext() {
+            @Override
+            public void refresh() throws BeansException, IllegalStateException {
+                long refreshStart = System.currentTimeMillis();
+                super.refresh();
+                startupTimeline.record(StartupTimeline.SPRING_CONTEXT_REFRESH, refreshStart);
+            }
+
+            @Override
+            protected DefaultListableBeanFactory createBeanFactory() {
+                return new TimingBeanFactory(getInternalParentBeanFactory(), startupTimeline);
+            }
+        };
+        if (appConfig.isParallelBootstrap()) {
+            context.addBeanFactoryPostProcessor(new LazyInitPostProcessor());
+        }
         
         // Add AppConfig to the application context
-        GenericApplicationContext parentContext = new GenericApplicationContext();
+        parentContext = new GenericApplicationContext();
         parentContext.refresh();
         parentContext.getBeanFactory().registerSingleton("appConfig", appConfig);
+        parentContext.getBeanFactory().registerSingleton("startupTimeline", startupTimeline);
+        parentContext.getBeanFactory().registerSingleton("parallelBootstrap", parallelBootstrap);
+        parentContext.getBeanFactory().registerSingleton("metricsRegistry", new MetricsRegistry());
         context.setParent(parentContext);
         
         context.getEnvironment().setActiveProfiles(appConfig.getActiveProfile());
@@ -172,7 +260,17 @@ public class StartupServletContextListener implements ServletContextListener {
         context.setAllowBeanDefinitionOverriding(false);
         context.setServletContext(servletContext);
 
-        DispatcherServlet dispatcherServlet = new DispatcherServlet(context);
+        final AppConfig warmUpConfig = appConfig;
+        // Reported by the warm-up, not by the container.
+        final AtomicInteger ready = WarmUp.claimReadiness(servletContext);
+        DispatcherServlet dispatcherServlet = new DispatcherServlet(context) {
+            @Override
+            protected void initFrameworkServlet() throws ServletException {
+                super.initFrameworkServlet();
+                // The context is refreshed now, warm it up.
+                new WarmUp(warmUpConfig, servletContext, getWebApplicationContext(), startupTimeline, ready).start();
+            }
+        };
         ServletRegistration.Dynamic dispatcherReg
                 = servletContext.addServlet("dispatcherServlet", dispatcherServlet);
         dispatcherReg.addMapping("/");
@@ -195,6 +293,10 @@ public class StartupServletContextListener implements ServletContextListener {
         // UTF-8 ALL the things
         encodingFilterReg.addMappingForUrlPatterns(null, false, "/*");
 
+        FilterRegistration.Dynamic firstRequestTimingFilterReg = servletContext.addFilter(
+                "firstRequestTimingFilter", new FirstRequestTimingFilter(startupTimeline));
+        firstRequestTimingFilterReg.addMappingForUrlPatterns(null, true, "/*");
+
         // OWASP says url-rewriting is bad.
         servletContext.setSessionTrackingModes(EnumSet.of(SessionTrackingMode.COOKIE));
 
@@ -206,10 +308,33 @@ public class StartupServletContextListener implements ServletContextListener {
         // If browser supports it, hide the session tracking cookie from client scripts.
         servletContext.getSessionCookieConfig().setHttpOnly(true);
         servletContext.getSessionCookieConfig().setMaxAge(-1); // never expire
+
+        startupTimeline.record(StartupTimeline.CONTEXT_INITIALIZED, start);
     }
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
         LOGGER.info("webapp context destroyed");
+        if (parentContext != null) {
+            parentContext.close();
+        }
+        if (parallelBootstrap != null) {
+            parallelBootstrap.close();
+        }
+        stopAsyncLogging();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void stopAsyncLogging() {
+        ch.qos.logback.classic.Logger rootLogger = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        AsyncBatchAppender<ILoggingEvent> asyncAppender = (AsyncBatchAppender<ILoggingEvent>) rootLogger.getAppender(AsyncBatchAppender.NAME);
+        if (asyncAppender == null) {
+            return;
+        }
+        LOGGER.info("async logging queued {} events, dropped {}", asyncAppender.getQueuedCount(), asyncAppender.getDroppedCount());
+        // The container keeps logging until it is stopped, let it write directly.
+        rootLogger.detachAppender(asyncAppender);
+        rootLogger.addAppender(asyncAppender.getAppender());
+        asyncAppender.stop();
     }
 }
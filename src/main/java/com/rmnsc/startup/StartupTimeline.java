@@ -0,0 +1,157 @@
+package com.rmnsc.startup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records how long the phases of a cold start take, from launching the JVM up
+ * to the first served request. The embedded container records its phases
+ * first and hands them over as servlet context attribute.
+ *
+ * Also lists how long each bean took to create, slowest first.
+ *
+ * The phases are kept in a plain map of JDK types, since the container and the
+ * webapp use different classloaders.
+ *
+ * @author Thomas
+ */
+public final class StartupTimeline {
+
+    // Shared with embeddedcontainer.StartJettyHelper
+    public static final String PHASES_ATTRIBUTE = "embeddedcontainer.startupPhases";
+    public static final String REPORT_FILE_ATTRIBUTE = "embeddedcontainer.startupReport";
+
+    public static final String CONTEXT_INITIALIZED = "contextInitialized";
+    public static final String SPRING_CONTEXT_REFRESH = "springContextRefresh";
+    public static final String HIKARI_POOL_INIT = "hikariPoolInit";
+    public static final String SCHEMA_MIGRATION = "schemaMigration";
+    public static final String WARM_UP = "warmUp";
+    public static final String FIRST_REQUEST = "firstRequest";
+    // Followed by the name of the object, see ParallelBootstrap.
+    public static final String BOOTSTRAP_PREFIX = "bootstrap:";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupTimeline.class);
+
+    // phase name -> {start, end} in epoch millis
+    private final Map<String, long[]> phases;
+    // bean name -> {total, self} in millis
+    private final Map<String, long[]> beans = Collections.synchronizedMap(new LinkedHashMap<String, long[]>());
+    private final File reportFile;
+    private final long jvmStartTime;
+
+    /**
+     * @param phases phases recorded so far, null if there are none
+     * @param reportFile where to write the report to, null to only log it
+     */
+    public StartupTimeline(Map<String, long[]> phases, File reportFile) {
+        this.phases = phases != null ? phases : Collections.synchronizedMap(new LinkedHashMap<String, long[]>());
+        this.reportFile = reportFile;
+        this.jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    /**
+     * Records a phase that ends now.
+     *
+     * @param phase name of the phase
+     * @param startMillis start of the phase, as of
+     * {@link System#currentTimeMillis()}
+     */
+    public void record(String phase, long startMillis) {
+        Objects.requireNonNull(phase, "phase must not be null");
+        long endMillis = System.currentTimeMillis();
+        phases.put(phase, new long[]{startMillis, endMillis});
+        LOGGER.info("startup phase {} took {}ms", phase, endMillis - startMillis);
+    }
+
+    /**
+     * Records how long it took to create a bean.
+     *
+     * @param beanName name of the bean
+     * @param totalMillis time to create it, including the beans it depends on
+     * @param selfMillis time to create it, excluding the beans created meanwhile
+     */
+    public void recordBean(String beanName, long totalMillis, long selfMillis) {
+        Objects.requireNonNull(beanName, "beanName must not be null");
+        beans.put(beanName, new long[]{totalMillis, selfMillis});
+    }
+
+    /**
+     * Logs the report and writes it to the report file, if any.
+     */
+    public void report() {
+        Map<String, Object> report = buildReport();
+        ObjectMapper objectMapper = new ObjectMapper();
+        try {
+            LOGGER.info("startup report: {}", objectMapper.writeValueAsString(report));
+        } catch (IOException ex) {
+            LOGGER.warn("failed to build startup report", ex);
+            return;
+        }
+
+        if (reportFile == null) {
+            return;
+        }
+        try {
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(reportFile, report);
+        } catch (IOException ex) {
+            LOGGER.warn("failed to write startup report to: " + reportFile, ex);
+        }
+    }
+
+    private Map<String, Object> buildReport() {
+        List<Map<String, Object>> phaseReports = new ArrayList<>();
+        long lastEnd = jvmStartTime;
+        synchronized (phases) {
+            for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+                long start = phase.getValue()[0];
+                long end = phase.getValue()[1];
+                Map<String, Object> phaseReport = new LinkedHashMap<>();
+                phaseReport.put("name", phase.getKey());
+                // Relative to JVM start, so nested phases are easy to spot.
+                phaseReport.put("startMillis", start - jvmStartTime);
+                phaseReport.put("durationMillis", end - start);
+                phaseReports.add(phaseReport);
+                lastEnd = Math.max(lastEnd, end);
+            }
+        }
+        List<Map.Entry<String, long[]>> beanEntries;
+        synchronized (beans) {
+            beanEntries = new ArrayList<>(beans.entrySet());
+        }
+        // Slowest first.
+        Collections.sort(beanEntries, new Comparator<Map.Entry<String, long[]>>() {
+            @Override
+            public int compare(Map.Entry<String, long[]> o1, Map.Entry<String, long[]> o2) {
+                return Long.compare(o2.getValue()[1], o1.getValue()[1]);
+            }
+        });
+        List<Map<String, Object>> beanReports = new ArrayList<>();
+        for (Map.Entry<String, long[]> bean : beanEntries) {
+            Map<String, Object> beanReport = new LinkedHashMap<>();
+            beanReport.put("name", bean.getKey());
+            beanReport.put("selfMillis", bean.getValue()[1]);
+            beanReport.put("totalMillis", bean.getValue()[0]);
+            beanReports.add(beanReport);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("jvmStartTime", jvmStartTime);
+        report.put("javaVersion", System.getProperty("java.version"));
+        report.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        report.put("totalMillis", lastEnd - jvmStartTime);
+        report.put("phases", phaseReports);
+        report.put("beans", beanReports);
+        return report;
+    }
+}
@@ -0,0 +1,55 @@
+package com.rmnsc.startup;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+/**
+ * Records how long it takes to create each bean, from instantiation until it
+ * is initialized, in the {@link StartupTimeline}. Beans created while creating
+ * another bean are subtracted from its self time.
+ *
+ * A bean factory, since post processors don't see the start of beans created
+ * by factory methods.
+ *
+ * @author Thomas
+ */
+final class TimingBeanFactory extends DefaultListableBeanFactory {
+
+    private final StartupTimeline startupTimeline;
+    // Time spent on nested beans for each bean in creation on this thread, innermost first.
+    private final ThreadLocal<Deque<long[]>> nestedNanos = new ThreadLocal<Deque<long[]>>() {
+        @Override
+        protected Deque<long[]> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+
+    TimingBeanFactory(BeanFactory parentBeanFactory, StartupTimeline startupTimeline) {
+        super(parentBeanFactory);
+        this.startupTimeline = Objects.requireNonNull(startupTimeline, "startupTimeline must not be null");
+    }
+
+    @Override
+    protected Object createBean(String beanName, RootBeanDefinition mbd, Object[] args) throws BeanCreationException {
+        Deque<long[]> stack = nestedNanos.get();
+        long[] nested = new long[1];
+        stack.push(nested);
+        long start = System.nanoTime();
+        try {
+            return super.createBean(beanName, mbd, args);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            stack.pop();
+            long[] outer = stack.peek();
+            if (outer != null) {
+                outer[0] += nanos;
+            }
+            startupTimeline.recordBean(beanName, nanos / 1000000, (nanos - nested[0]) / 1000000);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.rmnsc.startup;
+
+import com.rmnsc.config.AppConfig;
+import com.rmnsc.web.StandardRequestParameter;
+import com.rmnsc.web.WebConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletContext;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+
+/**
+ * Warms up the app before it reports to be ready, so the first real requests
+ * don't pay for it:
+ *
+ * <ol>
+ * <li>Opens and uses connections of the pool.</li>
+ * <li>Parses and renders every template in every locale, so the template
+ * cache is filled. Templates that need a request fail to render, but are
+ * parsed and cached anyway.</li>
+ * <li>Waits for the connector and sends the configured requests through the
+ * whole stack, so the JIT gets to see the hot paths.</li>
+ * </ol>
+ *
+ * The embedded container opens its connector only after the webapp started,
+ * so the warm-up runs in the background and flips the readiness flag of the
+ * container when done. Load balancers don't send traffic until then.
+ *
+ * @author Thomas
+ */
+public final class WarmUp {
+
+    // Shared with embeddedcontainer.StartJettyHelper
+    public static final String READY_ATTRIBUTE = "embeddedcontainer.ready";
+    public static final String READINESS_CLAIMED_ATTRIBUTE = "embeddedcontainer.readinessClaimed";
+    public static final String PORT_ATTRIBUTE = "embeddedcontainer.port";
+    // Shared with embeddedcontainer.ReadinessHandler
+    private static final int STARTING = 0;
+    private static final int READY = 1;
+
+    /**
+     * Marks warm-up requests, so they are not taken for the first request.
+     */
+    public static final String REQUEST_HEADER = "X-Warm-Up";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmUp.class);
+
+    private static final long CONNECTOR_WAIT_MILLIS = 60000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Claims the readiness flag of the embedded container, if any. The
+     * container then leaves it to the webapp to report readiness.
+     *
+     * @param servletContext the servlet context
+     * @return the readiness flag, null if not run by the embedded container.
+     */
+    static AtomicInteger claimReadiness(ServletContext servletContext) {
+        AtomicInteger ready = (AtomicInteger) servletContext.getAttribute(READY_ATTRIBUTE);
+        if (ready != null) {
+            servletContext.setAttribute(READINESS_CLAIMED_ATTRIBUTE, Boolean.TRUE);
+        }
+        return ready;
+    }
+
+    private final AppConfig appConfig;
+    private final ServletContext servletContext;
+    private final ApplicationContext applicationContext;
+    private final StartupTimeline startupTimeline;
+    private final AtomicInteger ready;
+
+    /**
+     * @param appConfig the configuration
+     * @param servletContext the servlet context
+     * @param applicationContext the refreshed context of the DispatcherServlet
+     * @param startupTimeline where to record the warm-up
+     * @param ready readiness flag to set when done, null if there is none
+     */
+    WarmUp(AppConfig appConfig, ServletContext servletContext, ApplicationContext applicationContext,
+            StartupTimeline startupTimeline, AtomicInteger ready) {
+        this.appConfig = Objects.requireNonNull(appConfig, "appConfig must not be null");
+        this.servletContext = Objects.requireNonNull(servletContext, "servletContext must not be null");
+        this.applicationContext = Objects.requireNonNull(applicationContext, "applicationContext must not be null");
+        this.startupTimeline = Objects.requireNonNull(startupTimeline, "startupTimeline must not be null");
+        this.ready = ready;
+    }
+
+    /**
+     * Warms up in a daemon thread, or just reports readiness if disabled.
+     */
+    void start() {
+        if (!appConfig.isWarmUpEnabled()) {
+            setReady();
+            return;
+        }
+        Thread thread = new Thread("warm-up") {
+            @Override
+            public void run() {
+                try {
+                    warmUp();
+                } catch (RuntimeException ex) {
+                    // Warming up is an optimization, the app works without.
+                    LOGGER.warn("warm-up failed", ex);
+                } finally {
+                    setReady();
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reports ready, unless the container is shutting down already.
+     */
+    private void setReady() {
+        if (ready != null) {
+            ready.compareAndSet(STARTING, READY);
+        }
+    }
+
+    private void warmUp() {
+        long start = System.currentTimeMillis();
+        int connections = warmUpConnectionPool();
+        List<Locale> locales = findLocales(servletContext);
+        int templates = warmUpTemplates(locales);
+        int[] requests = warmUpRequests(locales);
+        startupTimeline.record(StartupTimeline.WARM_UP, start);
+        LOGGER.info("warmed up {} connections, {} templates in {} locales, {} requests ({} failed)",
+                connections, templates, locales.size(), requests[0], requests[1]);
+    }
+
+    /**
+     * Borrows the connections all at once, so the pool has to open them.
+     */
+    private int warmUpConnectionPool() {
+        if (appConfig.isTodoStoreInMemory()) {
+            // There is no pool.
+            return 0;
+        }
+        // The pool itself, the primary DataSource is lazy.
+        DataSource connectionPool = applicationContext.getBean("connectionPool", DataSource.class);
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < appConfig.getWarmUpConnections(); i++) {
+                Connection connection = connectionPool.getConnection();
+                connections.add(connection);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SELECT 1");
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+            }
+        } catch (SQLException ex) {
+            LOGGER.warn("failed to warm up connection pool after " + connections.size() + " connections", ex);
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    LOGGER.debug("failed to return connection to pool", ex);
+                }
+            }
+        }
+        return connections.size();
+    }
+
+    /**
+     * The locales with messages, ROOT for the default messages.
+     */
+    static List<Locale> findLocales(ServletContext servletContext) {
+        String basename = WebConfig.MESSAGES_BASENAME;
+        String dir = basename.substring(0, basename.lastIndexOf('/') + 1);
+        String prefix = basename.substring(dir.length());
+        List<Locale> locales = new ArrayList<>();
+        for (String path : getResourcePaths(servletContext, dir)) {
+            String name = path.substring(dir.length());
+            if (!name.startsWith(prefix) || !name.endsWith(".properties")) {
+                continue;
+            }
+            String suffix = name.substring(prefix.length(), name.length() - ".properties".length());
+            if (suffix.isEmpty()) {
+                locales.add(Locale.ROOT);
+            } else if (suffix.startsWith("_")) {
+                locales.add(Locale.forLanguageTag(suffix.substring(1).replace('_', '-')));
+            }
+        }
+        if (locales.isEmpty()) {
+            locales.add(Locale.ROOT);
+        }
+        return locales;
+    }
+
+    private int warmUpTemplates(List<Locale> locales) {
+        TemplateEngine templateEngine = applicationContext.getBean(TemplateEngine.class);
+        int count = 0;
+        for (String path : getResourcePaths(servletContext, WebConfig.TEMPLATE_PREFIX)) {
+            if (!path.endsWith(WebConfig.TEMPLATE_SUFFIX)) {
+                continue;
+            }
+            String templateName = path.substring(WebConfig.TEMPLATE_PREFIX.length(),
+                    path.length() - WebConfig.TEMPLATE_SUFFIX.length());
+            for (Locale locale : locales) {
+                try {
+                    templateEngine.process(templateName, new Context(locale));
+                } catch (RuntimeException ex) {
+                    // Parsed and cached before the expressions fail.
+                    LOGGER.debug("template {} needs a request to render", templateName, ex);
+                }
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static List<String> getResourcePaths(ServletContext servletContext, String dir) {
+        Set<String> paths = servletContext.getResourcePaths(dir);
+        if (paths == null) {
+            return Collections.emptyList();
+        }
+        List<String> sortedPaths = new ArrayList<>(paths);
+        Collections.sort(sortedPaths);
+        return sortedPaths;
+    }
+
+    /**
+     * @return {sent, failed}
+     */
+    private int[] warmUpRequests(List<Locale> locales) {
+        int[] requests = new int[2];
+        Integer port = (Integer) servletContext.getAttribute(PORT_ATTRIBUTE);
+        if (port == null || appConfig.getWarmUpIterations() == 0 || appConfig.getWarmUpPaths().isEmpty()) {
+            return requests;
+        }
+        if (!waitForConnector(port)) {
+            LOGGER.warn("connector not open after {}ms, skipping warm-up requests", CONNECTOR_WAIT_MILLIS);
+            return requests;
+        }
+        String baseUrl = "http://127.0.0.1:" + port + servletContext.getContextPath();
+        for (int i = 0; i < appConfig.getWarmUpIterations(); i++) {
+            for (String path : appConfig.getWarmUpPaths()) {
+                for (Locale locale : locales) {
+                    requests[0]++;
+                    if (!get(baseUrl + withLocale(path, locale))) {
+                        requests[1]++;
+                    }
+                }
+            }
+        }
+        return requests;
+    }
+
+    private static String withLocale(String path, Locale locale) {
+        if (Locale.ROOT.equals(locale)) {
+            return path;
+        }
+        return path + (path.contains("?") ? '&' : '?')
+                + StandardRequestParameter.FORCED_LOCALE_TAG.getParameterName() + '=' + locale.toLanguageTag();
+    }
+
+    private static boolean waitForConnector(int port) {
+        long deadline = System.currentTimeMillis() + CONNECTOR_WAIT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), CONNECT_TIMEOUT_MILLIS);
+                return true;
+            } catch (IOException ex) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean get(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestProperty(REQUEST_HEADER, "true");
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            int status = connection.getResponseCode();
+            // Read everything, so the connection is kept alive.
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) != -1) {
+                        // discard
+                    }
+                }
+            }
+            if (status >= 400) {
+                LOGGER.debug("warm-up request {} failed with status {}", url, status);
+                return false;
+            }
+            return true;
+        } catch (IOException ex) {
+            LOGGER.debug("warm-up request {} failed", url, ex);
+            return false;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 
 package com.rmnsc.web;
 
+import com.rmnsc.config.AppConfig;
+import com.rmnsc.metrics.MetricsRegistry;
 import com.rmnsc.service.Services;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -17,10 +19,20 @@ public class Controllers {
 
     @Autowired
     private Services services;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+    @Autowired
+    private AppConfig appConfig;
 
     @Bean
     public TodoController todoController(){
-        return new TodoController(services.todoService());
+        return new TodoController(services.todoService(), appConfig.getTodoPageSize(),
+                appConfig.getTodoSearchMaxResults());
+    }
+
+    @Bean
+    public MetricsController metricsController() {
+        return new MetricsController(metricsRegistry);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package com.rmnsc.web;
+
+import com.rmnsc.metrics.MetricsRegistry;
+import java.util.Map;
+import java.util.Objects;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Serves the metrics of the {@link MetricsRegistry} as JSON.
+ *
+ * @author Thomas
+ */
+@Controller
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    private final MetricsRegistry metricsRegistry;
+
+    public MetricsController(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = Objects.requireNonNull(metricsRegistry, "metricsRegistry must not be null");
+    }
+
+    @RequestMapping(method = RequestMethod.GET, produces = "application/json")
+    @ResponseBody
+    public Map<String, Map<String, Object>> metrics() {
+        return metricsRegistry.getMetrics();
+    }
+}
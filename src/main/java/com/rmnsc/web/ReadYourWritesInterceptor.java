@@ -0,0 +1,49 @@
+package com.rmnsc.web;
+
+import com.rmnsc.persistence.ReadWriteRoutingDataSource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Sends the reads of a session to the primary for a while after the session
+ * wrote, so it sees its writes after the redirect even if the replicas lag
+ * behind. Every request that is not GET or HEAD counts as a write.
+ *
+ * @author Thomas
+ */
+class ReadYourWritesInterceptor extends HandlerInterceptorAdapter {
+
+    private final long stickyMillis;
+
+    /**
+     * @param stickyMillis how long to read from the primary after a write
+     */
+    ReadYourWritesInterceptor(long stickyMillis) {
+        this.stickyMillis = stickyMillis;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        long now = System.currentTimeMillis();
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            // Before the handler, the response may be committed afterwards.
+            request.getSession().setAttribute(StandardSessionAttribute.LAST_WRITE.getAttributeName(), now);
+            ReadWriteRoutingDataSource.setPrimaryForced(true);
+            return true;
+        }
+        HttpSession session = request.getSession(false);
+        Long lastWrite = session == null
+                ? null : (Long) session.getAttribute(StandardSessionAttribute.LAST_WRITE.getAttributeName());
+        ReadWriteRoutingDataSource.setPrimaryForced(lastWrite != null && now - lastWrite < stickyMillis);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+            Exception ex) {
+        ReadWriteRoutingDataSource.setPrimaryForced(false);
+    }
+}
@@ -6,7 +6,9 @@ package com.rmnsc.web;
  */
 public enum StandardSessionAttribute {
 
-    LOCALE("locale");
+    LOCALE("locale"),
+    // Millis of the last write, see ReadYourWritesInterceptor.
+    LAST_WRITE("lastWrite");
     private final String attributeName;
 
     private StandardSessionAttribute(String attributeName) {
@@ -1,13 +1,26 @@
 package com.rmnsc.web;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.rmnsc.domain.TodoItem;
+import com.rmnsc.domain.TodoItemHandler;
+import com.rmnsc.domain.TodoPage;
 import com.rmnsc.service.TodoService;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 /**
@@ -18,15 +31,33 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 @RequestMapping("/")
 public class TodoController {
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     private final TodoService todoService;
+    private final int pageSize;
+    private final int maxSearchResults;
 
-    public TodoController(TodoService todoService) {
+    public TodoController(TodoService todoService, int pageSize, int maxSearchResults) {
         this.todoService = Objects.requireNonNull(todoService);
+        this.pageSize = pageSize;
+        this.maxSearchResults = maxSearchResults;
     }
 
+    /**
+     * One page of items, the page links carry the cursor of the next one.
+     *
+     * @param cursor
+     * @param model
+     * @return
+     */
     @RequestMapping(method = RequestMethod.GET)
-    public String home(Model model) {
-        model.addAttribute("todos", todoService.getAllToDos());
+    public String home(
+            @RequestParam(value = "cursor", required = false) Long cursor,
+            Model model) {
+        TodoPage page = todoService.getPage(cursor, pageSize);
+        model.addAttribute("todos", page.getItems());
+        model.addAttribute("cursor", cursor);
+        model.addAttribute("nextCursor", page.getNextCursor());
         return "todo";
     }
 
@@ -45,4 +76,63 @@ public class TodoController {
         redirectAttributes.addFlashAttribute("message", "Added: " + description);
         return "redirect:/";
     }
+
+    /**
+     * Bulk export, a JSON array of descriptions. Written while the rows are
+     * read, so it needs little memory however many items there are.
+     *
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "todos", method = RequestMethod.GET, produces = "application/json")
+    public void streamAll(HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        final JsonGenerator generator = JSON_FACTORY.createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+        generator.writeStartArray();
+        this.todoService.forEachToDo(new TodoItemHandler() {
+            @Override
+            public void handle(TodoItem item) throws IOException {
+                generator.writeString(item.getDescription());
+            }
+        });
+        generator.writeEndArray();
+        generator.close();
+    }
+
+    /**
+     * Full-text search, a JSON array of the descriptions that contain all
+     * words, best match first.
+     *
+     * @param query
+     * @param limit how many at most, capped by the configured maximum
+     * @return
+     */
+    @RequestMapping(value = "todos/search", method = RequestMethod.GET, produces = "application/json")
+    @ResponseBody
+    public List<String> search(
+            @RequestParam("q") String query,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        int effectiveLimit = limit == null ? maxSearchResults : Math.max(1, Math.min(limit, maxSearchResults));
+        List<TodoItem> items = this.todoService.search(query, effectiveLimit);
+        List<String> descriptions = new ArrayList<>(items.size());
+        for (TodoItem item : items) {
+            descriptions.add(item.getDescription());
+        }
+        return descriptions;
+    }
+
+    /**
+     * Bulk import, a JSON array of descriptions.
+     *
+     * @param descriptions
+     */
+    @RequestMapping(value = "todos", method = RequestMethod.POST, consumes = "application/json")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void storeAll(@RequestBody List<String> descriptions) {
+        List<TodoItem> items = new ArrayList<>(descriptions.size());
+        for (String description : descriptions) {
+            items.add(new TodoItem(Objects.requireNonNull(description)));
+        }
+        this.todoService.storeAll(items);
+    }
 }
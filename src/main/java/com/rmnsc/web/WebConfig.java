@@ -2,6 +2,7 @@ package com.rmnsc.web;
 
 import com.rmnsc.config.*;
 import com.rmnsc.session.SmartLocaleResolver;
+import com.rmnsc.startup.ParallelBootstrap;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
@@ -11,6 +12,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.support.ReloadableResourceBundleMessageSource;
 import org.springframework.core.Ordered;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.web.servlet.LocaleResolver;
@@ -36,8 +38,14 @@ import org.thymeleaf.templateresolver.ServletContextTemplateResolver;
 @Configuration
 public class WebConfig extends WebMvcConfigurationSupport {
 
+    public static final String MESSAGES_BASENAME = "/WEB-INF/messages/messages";
+    public static final String TEMPLATE_PREFIX = "/WEB-INF/templates/";
+    public static final String TEMPLATE_SUFFIX = ".html";
+
     @Autowired
     private AppConfig appConfig;
+    @Autowired
+    private ParallelBootstrap parallelBootstrap;
 
     @Override
     public BeanNameUrlHandlerMapping beanNameHandlerMapping() {
@@ -76,8 +84,21 @@ public class WebConfig extends WebMvcConfigurationSupport {
 
     @Bean
     public MessageSource messageSource() {
+        return parallelBootstrap.take(ParallelBootstrap.MESSAGE_SOURCE, MessageSource.class);
+    }
+
+    /**
+     * Run by the {@link ParallelBootstrap}.
+     *
+     * @param appConfig the configuration
+     * @param resourceLoader loads the messages from the servlet context
+     * @return the message source
+     */
+    public static ReloadableResourceBundleMessageSource createMessageSource(AppConfig appConfig,
+            ResourceLoader resourceLoader) {
         ReloadableResourceBundleMessageSource messageSource = new ReloadableResourceBundleMessageSource();
-        messageSource.setBasename("/WEB-INF/messages/messages");
+        messageSource.setResourceLoader(resourceLoader);
+        messageSource.setBasename(MESSAGES_BASENAME);
         // All the message-files MUST be UTF-8 encoded.
         messageSource.setDefaultEncoding(StandardCharsets.UTF_8.name());
         messageSource.setFallbackToSystemLocale(false);
@@ -118,22 +139,66 @@ public class WebConfig extends WebMvcConfigurationSupport {
         // Resources don't need locales.
         localeRegistration.excludePathPatterns(this.getResourceRootPattern());
         //TODO: this will check EVERY request for this parameter. url could be forged by other users. mhm.
+
+        if (!appConfig.getJdbcReplicas().isEmpty()) {
+            InterceptorRegistration readYourWritesRegistration = registry.addInterceptor(
+                    new ReadYourWritesInterceptor(appConfig.getJdbcReadYourWritesMillis()));
+            readYourWritesRegistration.excludePathPatterns(this.getResourceRootPattern());
+        }
     }
 
+    /**
+     * Warmed up by {@link com.rmnsc.startup.WarmUp} before the app reports
+     * to be ready.
+     *
+     * @return
+     */
     @Bean
-    public ViewResolver viewResolver() {
+    public SpringTemplateEngine templateEngine() {
+        return parallelBootstrap.take(ParallelBootstrap.TEMPLATE_ENGINE, SpringTemplateEngine.class);
+    }
+
+    /**
+     * Initializes the engine right away, instead of on the first render. Run
+     * by the {@link ParallelBootstrap}.
+     *
+     * @param appConfig the configuration
+     * @param messageSource the message source
+     * @return the initialized engine
+     */
+    public static SpringTemplateEngine createTemplateEngine(AppConfig appConfig, MessageSource messageSource) {
         ServletContextTemplateResolver templateResolver = new ServletContextTemplateResolver();
-        templateResolver.setPrefix("/WEB-INF/templates/");
-        templateResolver.setSuffix(".html");
+        templateResolver.setPrefix(TEMPLATE_PREFIX);
+        templateResolver.setSuffix(TEMPLATE_SUFFIX);
         templateResolver.setTemplateMode("HTML5");
 
         SpringNonCacheableMessageResolver messageResolver = new SpringNonCacheableMessageResolver();
-        messageResolver.setMessageSource(this.messageSource());
+        messageResolver.setMessageSource(messageSource);
 
-        SpringTemplateEngine templateEngine = new SpringTemplateEngine();
+        SpringTemplateEngine templateEngine = new SpringTemplateEngine() {
+            @Override
+            public void afterPropertiesSet() throws Exception {
+                // Sets default message resolvers, which is too late once initialized.
+                // Ours is set anyway.
+                if (!isInitialized()) {
+                    super.afterPropertiesSet();
+                }
+            }
+        };
         templateEngine.setTemplateResolver(templateResolver);
         templateEngine.setMessageResolver(messageResolver);
 
+        if (appConfig.isDevelopment()) {
+            // Disable all caching of templates. Pretty slow.
+            // Allows for editing templates inside IDE WITHOUT reload of application.
+            templateEngine.setCacheManager(null);
+        }
+        templateEngine.initialize();
+        return templateEngine;
+    }
+
+    @Bean
+    public ViewResolver viewResolver() {
         ThymeleafViewResolver viewResolver = new ThymeleafViewResolver();
         viewResolver.setContentType("text/html");
         viewResolver.setCharacterEncoding(StandardCharsets.UTF_8.name());
@@ -142,15 +207,10 @@ public class WebConfig extends WebMvcConfigurationSupport {
         viewResolver.setRedirectHttp10Compatible(false);
 
         if (appConfig.isDevelopment()) {
-            // Disable all caching of templates. Pretty slow.
-            // Allows for editing templates inside IDE WITHOUT reload of application.
-            templateEngine.setCacheManager(null);
             viewResolver.setCache(false);
         }
 
-        viewResolver.setTemplateEngine(templateEngine);
-
-        // TODO start daemon thread/use some threadpool to initialize thymeleaf-engine. find out how. fake-render? init-method?
+        viewResolver.setTemplateEngine(this.templateEngine());
         return viewResolver;
     }
 }
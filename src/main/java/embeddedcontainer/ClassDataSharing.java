@@ -0,0 +1,285 @@
+package embeddedcontainer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application class-data sharing (AppCDS) for the classes of the container
+ * and the webapp. A training run boots the app in a new JVM, requests the main
+ * routes and writes a shared archive of all loaded classes when exiting. Later
+ * starts map this archive instead of loading and verifying all classes again.
+ *
+ * JVM options can't be changed at runtime. So the start script should pass
+ * -XX:SharedArchiveFile, the launcher only prints a hint if there is an
+ * archive. Optionally it runs the app in a new JVM with the archive, which
+ * keeps the launching JVM alive next to it. Writing the archive needs Java 13
+ * or later. Classes are only archived if they were loaded from jar files, so
+ * use a war.extraction mode that extracts the WAR.
+ *
+ * Only uses JDK classes, since it runs before any libs are on the classpath.
+ *
+ * @author Thomas
+ */
+final class ClassDataSharing {
+
+    static final String CDS_PROP = "cds";
+    // Hint at an archive, if there is one and the JVM does not use one.
+    static final String CDS_AUTO = "auto";
+    // Run the app in a new JVM with the archive of this WAR, if there is one.
+    static final String CDS_RELAUNCH = "relaunch";
+    static final String CDS_OFF = "off";
+    // Create an archive for this WAR.
+    static final String CDS_TRAIN = "train";
+    // Set on the JVM started by CDS_TRAIN, not meant to be used directly.
+    static final String CDS_TRAINING_RUN = "training-run";
+    static final String CDS_DIR_PROP = "cds.dir";
+    static final String TRAINING_PATHS_PROP = "cds.training.paths";
+
+    private static final String ARCHIVE_EXTENSION = ".jsa";
+    private static final String SHARED_ARCHIVE_OPTION = "-XX:SharedArchiveFile=";
+    private static final String CLASS_LIST_EXTENSION = ".classlist";
+    private static final int MIN_JAVA_VERSION_FOR_TRAINING = 13;
+    private static final String DEFAULT_TRAINING_PATHS = "/";
+    private static final long TRAINING_STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long TRAINING_POLL_INTERVAL_MILLIS = 100;
+
+    private ClassDataSharing() {
+    }
+
+    /**
+     * Prints how to use the archive in the given directory, unless the JVM
+     * was started with one. Training keeps only one archive, so the WAR is not
+     * hashed. The JVM checks itself whether the archive matches.
+     *
+     * @param cdsDir directory containing the archives
+     * @throws IOException
+     */
+    static void printArchiveHint(Path cdsDir) throws IOException {
+        if (!Files.isDirectory(cdsDir)) {
+            return;
+        }
+        for (String jvmArg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (jvmArg.startsWith(SHARED_ARCHIVE_OPTION)) {
+                return;
+            }
+        }
+        try (DirectoryStream<Path> archives = Files.newDirectoryStream(cdsDir, "*" + ARCHIVE_EXTENSION)) {
+            for (Path archive : archives) {
+                System.out.println("Shared class archive found, start the JVM with "
+                        + SHARED_ARCHIVE_OPTION + archive.toAbsolutePath() + " to use it, or with -D"
+                        + CDS_PROP + "=" + CDS_RELAUNCH);
+            }
+        }
+    }
+
+    /**
+     * Returns the shared archive of this WAR, if there is one. Only hashes
+     * the WAR if there are archives at all.
+     *
+     * @param cdsDir directory containing the archives
+     * @param warLocation the WAR
+     * @return the archive, null if there is none.
+     * @throws IOException
+     */
+    static Path findArchive(Path cdsDir, Path warLocation) throws IOException {
+        if (!Files.isDirectory(cdsDir)) {
+            return null;
+        }
+        try (DirectoryStream<Path> archives = Files.newDirectoryStream(cdsDir, "*" + ARCHIVE_EXTENSION)) {
+            if (!archives.iterator().hasNext()) {
+                return null;
+            }
+        }
+        Path archive = cdsDir.resolve(WarExtractor.hash(warLocation) + ARCHIVE_EXTENSION);
+        return Files.isRegularFile(archive) ? archive : null;
+    }
+
+    /**
+     * Runs the app in a new JVM that uses the given shared archive.
+     *
+     * @param archive the shared archive
+     * @param warLocation the WAR
+     * @param args arguments of main
+     * @return the exit code of the new JVM.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    static int runWithArchive(Path archive, Path warLocation, String[] args) throws IOException, InterruptedException {
+        System.out.println("Using shared class archive: " + archive);
+        return relaunch(warLocation, args, Arrays.asList(
+                SHARED_ARCHIVE_OPTION + archive,
+                "-D" + CDS_PROP + "=" + CDS_OFF));
+    }
+
+    /**
+     * Creates the shared archive of this WAR in a new JVM. Replaces all
+     * archives of other WARs.
+     *
+     * @param cdsDir directory containing the archives
+     * @param warLocation the WAR
+     * @param args arguments of main
+     * @return the exit code of the training JVM.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    static int train(Path cdsDir, Path warLocation, String[] args) throws IOException, InterruptedException {
+        int javaVersion = getJavaFeatureVersion();
+        if (javaVersion < MIN_JAVA_VERSION_FOR_TRAINING) {
+            throw new IllegalStateException("training a shared class archive needs java "
+                    + MIN_JAVA_VERSION_FOR_TRAINING + " or later, running: " + javaVersion);
+        }
+        Files.createDirectories(cdsDir);
+        try (DirectoryStream<Path> staleFiles = Files.newDirectoryStream(cdsDir,
+                "*{" + ARCHIVE_EXTENSION + "," + CLASS_LIST_EXTENSION + "}")) {
+            for (Path staleFile : staleFiles) {
+                Files.delete(staleFile);
+            }
+        }
+        String warHash = WarExtractor.hash(warLocation);
+        Path archive = cdsDir.resolve(warHash + ARCHIVE_EXTENSION);
+        Path classList = cdsDir.resolve(warHash + CLASS_LIST_EXTENSION);
+
+        System.out.println("Training shared class archive: " + archive);
+        int exitCode = relaunch(warLocation, args, Arrays.asList(
+                "-XX:ArchiveClassesAtExit=" + archive,
+                "-XX:DumpLoadedClassList=" + classList,
+                "-D" + CDS_PROP + "=" + CDS_TRAINING_RUN));
+        if (exitCode == 0 && Files.isRegularFile(archive)) {
+            System.out.println("Created shared class archive: " + archive + ", size: " + Files.size(archive) / 1024 + "KB");
+        } else {
+            System.out.println("Training failed, exit code: " + exitCode);
+        }
+        return exitCode;
+    }
+
+    /**
+     * Requests all training paths as soon as the server accepts connections,
+     * then exits the JVM. Jetty opens its connector only after the webapp
+     * started, so the app is fully initialized by then.
+     *
+     * @param port the HTTP port of the server
+     */
+    static void startTrainingDriver(final int port) {
+        final String[] paths = System.getProperty(TRAINING_PATHS_PROP, DEFAULT_TRAINING_PATHS).split(",");
+        Thread driver = new Thread("cds-training-driver") {
+            @Override
+            public void run() {
+                int exitCode = 0;
+                try {
+                    waitForServer(port);
+                    for (String path : paths) {
+                        exercise(port, path.trim());
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    System.out.println("Training run failed: " + ex);
+                    exitCode = 1;
+                }
+                // Stops Jetty through its shutdown hook. The JVM writes the archive on exit.
+                System.exit(exitCode);
+            }
+        };
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    /**
+     * A debugger agent can't be shared by two JVMs, so don't relaunch then.
+     *
+     * @return true if the app may be run in a new JVM.
+     */
+    static boolean canRelaunch() {
+        for (String jvmArg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (jvmArg.startsWith("-agentlib:jdwp") || jvmArg.startsWith("-Xrunjdwp")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int relaunch(Path warLocation, String[] args, List<String> extraJvmOptions) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        // Last one wins, so these override inherited options.
+        command.addAll(extraJvmOptions);
+        command.add("-jar");
+        command.add(warLocation.toString());
+        command.addAll(Arrays.asList(args));
+
+        final Process app = new ProcessBuilder(command)
+                .directory(new File(System.getProperty("user.dir")))
+                .inheritIO()
+                .start();
+        // Signals only reach this JVM. Pass them on, so the app can shut down cleanly.
+        Thread destroyApp = new Thread() {
+            @Override
+            public void run() {
+                app.destroy();
+                try {
+                    app.waitFor();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(destroyApp);
+        int exitCode = app.waitFor();
+        Runtime.getRuntime().removeShutdownHook(destroyApp);
+        return exitCode;
+    }
+
+    private static void waitForServer(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TRAINING_STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port));
+                return;
+            } catch (ConnectException ex) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("server did not start in time", ex);
+                }
+                Thread.sleep(TRAINING_POLL_INTERVAL_MILLIS);
+            }
+        }
+    }
+
+    private static void exercise(int port, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http", "localhost", port, path).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // Just render everything.
+                }
+            }
+        }
+        System.out.println("Training request: " + path + " -> " + status);
+    }
+
+    private static int getJavaFeatureVersion() {
+        // 1.7, 1.8, 9, 10, ...
+        String specVersion = System.getProperty("java.specification.version");
+        if (specVersion.startsWith("1.")) {
+            specVersion = specVersion.substring(2);
+        }
+        return Integer.parseInt(specVersion);
+    }
+}
@@ -0,0 +1,57 @@
+package embeddedcontainer;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * Lets only a limited number of requests into the wrapped handler at a time.
+ * Others wait for a free slot, and get a 503 if there is none in time.
+ *
+ * Needed when every request gets its own (virtual) thread: the thread pool
+ * does not limit concurrency anymore, the database would.
+ *
+ * @author Thomas
+ */
+class ConcurrencyLimitHandler extends HandlerWrapper {
+
+    private final Semaphore permits;
+    private final long maxWaitMillis;
+
+    /**
+     * @param maxConcurrentRequests requests handled at the same time
+     * @param maxWaitMillis how long a request waits for a free slot
+     */
+    ConcurrencyLimitHandler(int maxConcurrentRequests, long maxWaitMillis) {
+        // Fair, so waiting requests are served in order.
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            baseRequest.setHandled(true);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        try {
+            super.handle(target, baseRequest, request, response);
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package embeddedcontainer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shutdown hook that drains the server, so rolling restarts don't cut off
+ * requests:
+ *
+ * <ol>
+ * <li>Fail the readiness check for good, and give load balancers drainDelay
+ * to notice.</li>
+ * <li>Stop accepting connections and wait for in-flight requests, up to the
+ * stop timeout of the server. Jetty does both on stop, since the
+ * {@link StatisticsHandler} is graceful.</li>
+ * <li>Stop the webapp, which closes the connection pool.</li>
+ * <li>Log what was drained and what was aborted.</li>
+ * </ol>
+ *
+ * @author Thomas
+ */
+final class GracefulShutdown extends Thread {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GracefulShutdown.class);
+
+    private final Server server;
+    private final StatisticsHandler statisticsHandler;
+    private final AtomicInteger ready;
+    private final long drainDelayMillis;
+
+    /**
+     * @param server the server to stop
+     * @param statisticsHandler handler counting all requests
+     * @param ready readiness of the server, see {@link ReadinessHandler}
+     * @param drainDelayMillis how long to wait after failing readiness
+     */
+    GracefulShutdown(Server server, StatisticsHandler statisticsHandler, AtomicInteger ready, long drainDelayMillis) {
+        super("graceful-shutdown");
+        this.server = server;
+        this.statisticsHandler = statisticsHandler;
+        this.ready = ready;
+        this.drainDelayMillis = drainDelayMillis;
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        ready.set(ReadinessHandler.SHUTTING_DOWN);
+        LOGGER.info("shutting down, readiness failed, {} requests in flight", statisticsHandler.getRequestsActive());
+        if (drainDelayMillis > 0) {
+            try {
+                Thread.sleep(drainDelayMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int inFlight = statisticsHandler.getRequestsActive();
+        long drainStart = System.currentTimeMillis();
+        try {
+            server.stop();
+        } catch (Exception ex) {
+            // The JVM exits anyway.
+            LOGGER.warn("failed to stop server cleanly", ex);
+        }
+        int aborted = statisticsHandler.getRequestsActive();
+        LOGGER.info("drained {} of {} in-flight requests in {}ms, aborted {}, shutdown took {}ms",
+                inFlight - aborted, inFlight, System.currentTimeMillis() - drainStart, aborted,
+                System.currentTimeMillis() - start);
+    }
+}
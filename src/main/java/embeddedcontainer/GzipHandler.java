@@ -0,0 +1,383 @@
+package embeddedcontainer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * Compresses responses of the wrapped handler with gzip, if the client
+ * accepts it. Only complete (200) responses of the given MIME types are
+ * compressed, and only if they are at least minSize bytes long. Responses
+ * without a content length are buffered up to minSize bytes to find out.
+ * Non-blocking (servlet 3.1) writes are not compressed.
+ *
+ * Jetty 9.1 only has a servlet filter for this in an extra module.
+ *
+ * @author Thomas
+ */
+class GzipHandler extends HandlerWrapper {
+
+    private static final String GZIP = "gzip";
+    private static final String ANY_ENCODING = "*";
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    private final int minSize;
+    private final Set<String> mimeTypes;
+
+    /**
+     * @param minSize smallest response to compress in bytes
+     * @param mimeTypes MIME types to compress, without parameters
+     */
+    GzipHandler(int minSize, Set<String> mimeTypes) {
+        this.minSize = minSize;
+        this.mimeTypes = mimeTypes;
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header, e.g. "gzip,
+     * deflate;q=0.5"
+     * @return whether it accepts gzip, by name or as *, with a q-value above
+     * 0. gzip by name takes precedence over *.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        // -1 if not listed.
+        float gzipQuality = -1;
+        float anyQuality = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            float quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.regionMatches(true, 0, "q=", 0, 2)) {
+                    try {
+                        quality = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException ex) {
+                        // Malformed, better not.
+                        quality = 0;
+                    }
+                }
+            }
+            if (GZIP.equalsIgnoreCase(name)) {
+                gzipQuality = quality;
+            } else if (ANY_ENCODING.equals(name)) {
+                anyQuality = quality;
+            }
+        }
+        return gzipQuality >= 0 ? gzipQuality > 0 : anyQuality > 0;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        if ("HEAD".equals(request.getMethod())) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+        // Also on uncompressed responses, or caches serve them to clients accepting gzip.
+        addVary(response);
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null || !acceptsGzip(acceptEncoding)) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+
+        final GzipResponse gzipResponse = new GzipResponse(response);
+        boolean finishLater = false;
+        try {
+            super.handle(target, baseRequest, request, gzipResponse);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) throws IOException {
+                        gzipResponse.finish();
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+                finishLater = true;
+            }
+        }
+        if (!finishLater) {
+            gzipResponse.finish();
+        }
+    }
+
+    private static void addVary(HttpServletResponse response) {
+        // Caches must tell compressed and uncompressed responses apart.
+        response.addHeader("Vary", "Accept-Encoding");
+    }
+
+    /**
+     * Holds back the content length, since it changes when compressing.
+     */
+    private final class GzipResponse extends HttpServletResponseWrapper {
+
+        private long contentLength = -1;
+        private GzipOutputStream outputStream;
+        private PrintWriter writer;
+
+        GzipResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = value == null ? -1 : Long.parseLong(value);
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setHeader(name, value);
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = value;
+            } else {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() was already called");
+            }
+            if (outputStream == null) {
+                outputStream = new GzipOutputStream(this);
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (outputStream != null) {
+                    throw new IllegalStateException("getOutputStream() was already called");
+                }
+                outputStream = new GzipOutputStream(this);
+                writer = new PrintWriter(new OutputStreamWriter(outputStream, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            } else if (outputStream != null) {
+                outputStream.flush();
+            }
+            super.flushBuffer();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            // Reset removed it, but the response may still be compressed.
+            addVary(this);
+            contentLength = -1;
+            resetBuffer();
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (outputStream != null) {
+                outputStream.resetBuffer();
+            }
+        }
+
+        /**
+         * Writes what is still buffered. The response is complete after this.
+         */
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.close();
+            } else if (outputStream != null) {
+                outputStream.close();
+            } else if (contentLength >= 0 && !isCommitted()) {
+                // Nothing written through this wrapper.
+                super.setContentLengthLong(contentLength);
+            }
+        }
+
+        boolean shouldCompress(long length) {
+            // Jetty reports 0 until the status is set explicitly.
+            int status = getStatus();
+            if ((status != 0 && status != HttpServletResponse.SC_OK) || containsHeader("Content-Encoding")) {
+                return false;
+            }
+            if (length >= 0 && length < minSize) {
+                return false;
+            }
+            String contentType = getContentType();
+            if (contentType == null) {
+                return false;
+            }
+            int parametersIdx = contentType.indexOf(';');
+            String mimeType = (parametersIdx == -1 ? contentType : contentType.substring(0, parametersIdx)).trim();
+            return mimeTypes.contains(mimeType.toLowerCase());
+        }
+    }
+
+    /**
+     * Buffers up to minSize bytes, then decides whether to compress.
+     */
+    private final class GzipOutputStream extends ServletOutputStream {
+
+        private final GzipResponse response;
+        private ByteArrayOutputStream buffer;
+        // The stream of the wrapped response, or a gzip stream on top of it, once decided.
+        private OutputStream out;
+        private boolean closed;
+
+        GzipOutputStream(GzipResponse response) {
+            this.response = response;
+            this.buffer = new ByteArrayOutputStream(Math.min(minSize, 8192));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            if (out == null) {
+                if (buffer.size() + len < minSize) {
+                    buffer.write(b, off, len);
+                    return;
+                }
+                // Long enough, unless the content length says otherwise.
+                decide(response.contentLength);
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (out == null) {
+                // Flushing commits the response, the length is only known if set.
+                decide(response.contentLength);
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (out == null) {
+                decide(response.contentLength >= 0 ? response.contentLength : buffer.size());
+            }
+            out.close();
+            closed = true;
+        }
+
+        @Override
+        public boolean isReady() {
+            // Compressed output is written blocking.
+            return !(out instanceof ServletOutputStream) || ((ServletOutputStream) out).isReady();
+        }
+
+        /**
+         * Non-blocking writes go to the wrapped stream uncompressed: a gzip
+         * stream may write more than the listener was told it could.
+         */
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            if (out == null) {
+                try {
+                    start(false);
+                } catch (IOException ex) {
+                    writeListener.onError(ex);
+                    return;
+                }
+            } else if (!(out instanceof ServletOutputStream)) {
+                throw new IllegalStateException("compressed output already started, can't write non-blocking");
+            }
+            ((ServletOutputStream) out).setWriteListener(writeListener);
+        }
+
+        void resetBuffer() {
+            if (out == null) {
+                buffer.reset();
+            }
+        }
+
+        private void decide(long length) throws IOException {
+            start(!response.isCommitted() && response.shouldCompress(length));
+        }
+
+        /**
+         * Writes what is buffered, compressed or not, and everything after.
+         */
+        private void start(boolean compress) throws IOException {
+            HttpServletResponse wrapped = (HttpServletResponse) response.getResponse();
+            if (compress) {
+                wrapped.setHeader("Content-Encoding", GZIP);
+                out = new GZIPOutputStream(wrapped.getOutputStream(), 8192);
+            } else {
+                if (response.contentLength >= 0 && !response.isCommitted()) {
+                    wrapped.setContentLengthLong(response.contentLength);
+                }
+                out = wrapped.getOutputStream();
+            }
+            buffer.writeTo(out);
+            buffer = null;
+        }
+    }
+}
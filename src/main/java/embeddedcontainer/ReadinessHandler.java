@@ -0,0 +1,56 @@
+package embeddedcontainer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * Answers readiness checks of load balancers on the given path: 200 while the
+ * server takes new requests, 503 otherwise. Everything else goes to the
+ * wrapped handler.
+ *
+ * The readiness only goes from {@link #STARTING} to {@link #READY}, by
+ * compareAndSet, and to {@link #SHUTTING_DOWN} for good. So a warm-up that
+ * finishes during shutdown cannot report ready again.
+ *
+ * @author Thomas
+ */
+class ReadinessHandler extends HandlerWrapper {
+
+    // Shared with com.rmnsc.startup.WarmUp
+    static final int STARTING = 0;
+    static final int READY = 1;
+    static final int SHUTTING_DOWN = 2;
+
+    private final String path;
+    private final AtomicInteger ready;
+
+    /**
+     * @param path path of the readiness check, e.g. /ready
+     * @param ready whether the server takes new requests, one of the states
+     * above
+     */
+    ReadinessHandler(String path, AtomicInteger ready) {
+        this.path = path;
+        this.ready = ready;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        if (!path.equals(target)) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+        baseRequest.setHandled(true);
+        boolean isReady = ready.get() == READY;
+        response.setStatus(isReady ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setContentType("text/plain");
+        response.setHeader("Cache-Control", "no-store");
+        response.getWriter().print(isReady ? "ready" : "not ready");
+    }
+}
@@ -0,0 +1,338 @@
+package embeddedcontainer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Thread pool and connector settings of the Jetty server. Read from system
+ * properties, falling back to the default.properties of the webapp and then to
+ * the defaults below.
+ *
+ * The thread pool is bounded and so is its queue, so an overloaded server
+ * rejects connections instead of queueing requests until they time out anyway.
+ * Size jetty.threads.max to the database pool: more request threads than
+ * connections only wait for a connection.
+ *
+ * With jetty.threads.virtual, every task runs on a new virtual thread instead
+ * (Java 21 or later). Requests then wait for the database without blocking a
+ * platform thread, and jetty.virtual.maxConcurrentRequests takes over the
+ * role of the pool size. It defaults to the maximum of the database pool,
+ * rmnsc.jdbc.pool.maxSize, so requests queue here and not inside the pool.
+ *
+ * jetty.gzip compresses responses of the webapp, see {@link GzipHandler}.
+ *
+ * On shutdown the server is drained for up to jetty.drain.timeout, see
+ * {@link GracefulShutdown}.
+ *
+ * @author Thomas
+ */
+final class ServerTuning {
+
+    // Relative to the root of the WAR, which is on the classpath of the server.
+    private static final String DEFAULT_PROPERTIES = "WEB-INF/classes/default.properties";
+
+    static final String MAX_THREADS_PROP = "jetty.threads.max";
+    static final String MIN_THREADS_PROP = "jetty.threads.min";
+    static final String QUEUE_SIZE_PROP = "jetty.threads.queue";
+    static final String THREAD_IDLE_TIMEOUT_PROP = "jetty.threads.idleTimeout";
+    static final String ACCEPTORS_PROP = "jetty.acceptors";
+    static final String SELECTORS_PROP = "jetty.selectors";
+    static final String ACCEPT_QUEUE_SIZE_PROP = "jetty.acceptQueue";
+    static final String IDLE_TIMEOUT_PROP = "jetty.idleTimeout";
+    static final String OUTPUT_BUFFER_SIZE_PROP = "jetty.outputBufferSize";
+    static final String REQUEST_HEADER_SIZE_PROP = "jetty.requestHeaderSize";
+    static final String RESPONSE_HEADER_SIZE_PROP = "jetty.responseHeaderSize";
+    static final String VIRTUAL_THREADS_PROP = "jetty.threads.virtual";
+    static final String MAX_CONCURRENT_REQUESTS_PROP = "jetty.virtual.maxConcurrentRequests";
+    static final String MAX_REQUEST_WAIT_PROP = "jetty.virtual.maxRequestWait";
+    // Of the webapp, read here to size the concurrency limit.
+    static final String JDBC_POOL_MAX_SIZE_PROP = "rmnsc.jdbc.pool.maxSize";
+    static final String GZIP_PROP = "jetty.gzip";
+    static final String GZIP_MIN_SIZE_PROP = "jetty.gzip.minSize";
+    static final String GZIP_MIME_TYPES_PROP = "jetty.gzip.mimeTypes";
+    static final String READINESS_PATH_PROP = "jetty.readiness.path";
+    static final String DRAIN_DELAY_PROP = "jetty.drain.delay";
+    static final String DRAIN_TIMEOUT_PROP = "jetty.drain.timeout";
+    // Sizes acceptors and selectors to the number of cores.
+    static final String AUTO = "auto";
+
+    private static final int DEFAULT_MAX_THREADS = 64;
+    private static final int DEFAULT_MIN_THREADS = 8;
+    private static final int DEFAULT_QUEUE_SIZE = 512;
+    private static final int DEFAULT_THREAD_IDLE_TIMEOUT_MILLIS = 60000;
+    private static final int DEFAULT_ACCEPT_QUEUE_SIZE = 128;
+    // Also the keep-alive timeout, Jetty closes idle persistent connections after it.
+    private static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+    private static final int DEFAULT_OUTPUT_BUFFER_SIZE = 32 * 1024;
+    private static final int DEFAULT_REQUEST_HEADER_SIZE = 8 * 1024;
+    private static final int DEFAULT_RESPONSE_HEADER_SIZE = 8 * 1024;
+    private static final int MAX_ACCEPTORS = 4;
+    private static final int MAX_SELECTORS = 4;
+    private static final int DEFAULT_MAX_REQUEST_WAIT_MILLIS = 30000;
+    // As in com.rmnsc.config.AppConfig, which the server does not see.
+    private static final int DEFAULT_JDBC_POOL_MAX_SIZE = 50;
+    // Smaller responses mostly fit into one packet anyway.
+    private static final int DEFAULT_GZIP_MIN_SIZE = 1024;
+    private static final String DEFAULT_GZIP_MIME_TYPES = "text/html,text/plain,text/css,text/javascript,"
+            + "application/javascript,application/json,application/xml,image/svg+xml";
+    private static final String DEFAULT_READINESS_PATH = "/ready";
+    private static final int DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Reads the system properties, with the default.properties of the webapp
+     * as defaults.
+     *
+     * @param classLoader class loader with the root of the WAR on its classpath
+     * @return the properties.
+     * @throws IOException
+     */
+    static Properties readProperties(ClassLoader classLoader) throws IOException {
+        Properties defaults = new Properties();
+        try (InputStream in = classLoader.getResourceAsStream(DEFAULT_PROPERTIES)) {
+            if (in != null) {
+                defaults.load(in);
+            }
+        }
+        Properties props = new Properties(defaults);
+        props.putAll(System.getProperties());
+        return props;
+    }
+
+    private final int maxThreads;
+    private final int minThreads;
+    private final int queueSize;
+    private final int threadIdleTimeout;
+    private final int acceptors;
+    private final int selectors;
+    private final int acceptQueueSize;
+    private final int idleTimeout;
+    private final int outputBufferSize;
+    private final int requestHeaderSize;
+    private final int responseHeaderSize;
+    private final boolean virtualThreads;
+    private final int maxConcurrentRequests;
+    private final int maxRequestWait;
+    private final boolean gzip;
+    private final int gzipMinSize;
+    private final Set<String> gzipMimeTypes;
+    private final String readinessPath;
+    private final int drainDelay;
+    private final int drainTimeout;
+
+    ServerTuning(Properties props, int cores) {
+        this.maxThreads = getPositiveInt(props, MAX_THREADS_PROP, DEFAULT_MAX_THREADS);
+        this.minThreads = getPositiveInt(props, MIN_THREADS_PROP, DEFAULT_MIN_THREADS);
+        this.queueSize = getPositiveInt(props, QUEUE_SIZE_PROP, DEFAULT_QUEUE_SIZE);
+        this.threadIdleTimeout = getPositiveInt(props, THREAD_IDLE_TIMEOUT_PROP, DEFAULT_THREAD_IDLE_TIMEOUT_MILLIS);
+        // Accepting is cheap, a few threads keep up with lots of cores.
+        this.acceptors = getPositiveIntOrAuto(props, ACCEPTORS_PROP, Math.max(1, Math.min(MAX_ACCEPTORS, cores / 8)));
+        this.selectors = getPositiveIntOrAuto(props, SELECTORS_PROP, Math.max(1, Math.min(MAX_SELECTORS, cores / 2)));
+        this.acceptQueueSize = getPositiveInt(props, ACCEPT_QUEUE_SIZE_PROP, DEFAULT_ACCEPT_QUEUE_SIZE);
+        this.idleTimeout = getPositiveInt(props, IDLE_TIMEOUT_PROP, DEFAULT_IDLE_TIMEOUT_MILLIS);
+        this.outputBufferSize = getPositiveInt(props, OUTPUT_BUFFER_SIZE_PROP, DEFAULT_OUTPUT_BUFFER_SIZE);
+        this.requestHeaderSize = getPositiveInt(props, REQUEST_HEADER_SIZE_PROP, DEFAULT_REQUEST_HEADER_SIZE);
+        this.responseHeaderSize = getPositiveInt(props, RESPONSE_HEADER_SIZE_PROP, DEFAULT_RESPONSE_HEADER_SIZE);
+        this.virtualThreads = getBoolean(props, VIRTUAL_THREADS_PROP);
+        this.maxConcurrentRequests = getPositiveInt(props, MAX_CONCURRENT_REQUESTS_PROP,
+                getPositiveInt(props, JDBC_POOL_MAX_SIZE_PROP, DEFAULT_JDBC_POOL_MAX_SIZE));
+        this.maxRequestWait = getPositiveInt(props, MAX_REQUEST_WAIT_PROP, DEFAULT_MAX_REQUEST_WAIT_MILLIS);
+        this.gzip = getBoolean(props, GZIP_PROP);
+        this.gzipMinSize = getPositiveInt(props, GZIP_MIN_SIZE_PROP, DEFAULT_GZIP_MIN_SIZE);
+        this.gzipMimeTypes = getList(props, GZIP_MIME_TYPES_PROP, DEFAULT_GZIP_MIME_TYPES);
+        this.readinessPath = props.getProperty(READINESS_PATH_PROP, DEFAULT_READINESS_PATH).trim();
+        // No delay by default, there is no load balancer in development.
+        this.drainDelay = getNonNegativeInt(props, DRAIN_DELAY_PROP, 0);
+        this.drainTimeout = getPositiveInt(props, DRAIN_TIMEOUT_PROP, DEFAULT_DRAIN_TIMEOUT_MILLIS);
+
+        if (minThreads > maxThreads) {
+            throw new IllegalArgumentException(MIN_THREADS_PROP + " (" + minThreads
+                    + ") must not be greater than " + MAX_THREADS_PROP + " (" + maxThreads + ")");
+        }
+        // Acceptors and selectors block a pool thread each.
+        if (maxThreads <= acceptors + selectors) {
+            throw new IllegalArgumentException(MAX_THREADS_PROP + " (" + maxThreads
+                    + ") must be greater than acceptors (" + acceptors + ") + selectors (" + selectors + ")");
+        }
+        if (virtualThreads && !VirtualThreads.isAvailable()) {
+            throw new IllegalArgumentException(VIRTUAL_THREADS_PROP + " needs java 21 or later, running: "
+                    + System.getProperty("java.version"));
+        }
+        if (!readinessPath.startsWith("/")) {
+            throw new IllegalArgumentException(READINESS_PATH_PROP + " must start with /: " + readinessPath);
+        }
+    }
+
+    /**
+     * Creates a server with a bounded thread pool, or virtual threads, and
+     * one HTTP connector.
+     *
+     * @param port the HTTP port
+     * @return the server, not started yet.
+     */
+    Server createServer(int port) {
+        Server server;
+        if (virtualThreads) {
+            // Stops the executor with the server.
+            server = new Server(new ExecutorThreadPool(VirtualThreads.newThreadPerTaskExecutor("jetty-virtual-")));
+        } else {
+            QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, minThreads, threadIdleTimeout,
+                    new BlockingArrayQueue<Runnable>(minThreads, minThreads, queueSize));
+            threadPool.setName("jetty");
+            server = new Server(threadPool);
+        }
+
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.setOutputBufferSize(outputBufferSize);
+        httpConfig.setRequestHeaderSize(requestHeaderSize);
+        httpConfig.setResponseHeaderSize(responseHeaderSize);
+        httpConfig.setSendServerVersion(false);
+
+        ServerConnector connector = new ServerConnector(server, null, null, null, acceptors, selectors,
+                new HttpConnectionFactory(httpConfig));
+        connector.setPort(port);
+        connector.setAcceptQueueSize(acceptQueueSize);
+        connector.setIdleTimeout(idleTimeout);
+        server.addConnector(connector);
+        // How long to wait for in-flight requests on stop.
+        server.setStopTimeout(drainTimeout);
+        return server;
+    }
+
+    /**
+     * Limits the concurrent requests to the webapp when running on virtual
+     * threads, since the thread pool does not anymore.
+     *
+     * @param webapp the handler of the webapp
+     * @return the handler to add to the server instead.
+     */
+    Handler limitConcurrency(Handler webapp) {
+        if (!virtualThreads) {
+            return webapp;
+        }
+        ConcurrencyLimitHandler concurrencyLimitHandler = new ConcurrencyLimitHandler(maxConcurrentRequests, maxRequestWait);
+        concurrencyLimitHandler.setHandler(webapp);
+        return concurrencyLimitHandler;
+    }
+
+    /**
+     * Compresses the responses of the webapp, if enabled.
+     *
+     * @param webapp the handler of the webapp
+     * @return the handler to add to the server instead.
+     */
+    Handler compress(Handler webapp) {
+        if (!gzip) {
+            return webapp;
+        }
+        GzipHandler gzipHandler = new GzipHandler(gzipMinSize, gzipMimeTypes);
+        gzipHandler.setHandler(webapp);
+        return gzipHandler;
+    }
+
+    String getReadinessPath() {
+        return readinessPath;
+    }
+
+    int getDrainDelay() {
+        return drainDelay;
+    }
+
+    @Override
+    public String toString() {
+        String threads;
+        if (virtualThreads) {
+            threads = "virtual threads, concurrent requests: " + maxConcurrentRequests
+                    + ", max request wait: " + maxRequestWait + "ms";
+        } else {
+            threads = "threads: " + minThreads + ".." + maxThreads
+                    + ", queue: " + queueSize
+                    + ", thread idle timeout: " + threadIdleTimeout + "ms";
+        }
+        return threads
+                + ", acceptors: " + acceptors
+                + ", selectors: " + selectors
+                + ", accept queue: " + acceptQueueSize
+                + ", idle timeout: " + idleTimeout + "ms"
+                + ", output buffer: " + outputBufferSize
+                + ", request header: " + requestHeaderSize
+                + ", response header: " + responseHeaderSize
+                + ", gzip: " + (gzip ? "min size: " + gzipMinSize + ", types: " + gzipMimeTypes : "off")
+                + ", drain delay: " + drainDelay + "ms"
+                + ", drain timeout: " + drainTimeout + "ms";
+    }
+
+    private static boolean getBoolean(Properties props, String key) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return false;
+        }
+        // Boolean.parseBoolean takes anything but "true" as false, typos included.
+        switch (value.trim()) {
+            case "true":
+                return true;
+            case "false":
+                return false;
+            default:
+                throw new IllegalArgumentException(key + " must be true or false: " + value);
+        }
+    }
+
+    private static Set<String> getList(Properties props, String key, String defaultValue) {
+        Set<String> values = new LinkedHashSet<>();
+        for (String value : props.getProperty(key, defaultValue).split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim().toLowerCase());
+            }
+        }
+        return Collections.unmodifiableSet(values);
+    }
+
+    private static int getPositiveIntOrAuto(Properties props, String key, int autoValue) {
+        String value = props.getProperty(key);
+        if (value == null || AUTO.equals(value.trim())) {
+            return autoValue;
+        }
+        return getPositiveInt(props, key, autoValue);
+    }
+
+    private static int getPositiveInt(Properties props, String key, int defaultValue) {
+        int intValue = getInt(props, key, defaultValue);
+        if (intValue < 1) {
+            throw new IllegalArgumentException(key + " must be positive: " + intValue);
+        }
+        return intValue;
+    }
+
+    private static int getNonNegativeInt(Properties props, String key, int defaultValue) {
+        int intValue = getInt(props, key, defaultValue);
+        if (intValue < 0) {
+            throw new IllegalArgumentException(key + " must not be negative: " + intValue);
+        }
+        return intValue;
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(key + " malformed: " + value, ex);
+        }
+    }
+}
@@ -4,17 +4,20 @@ import ch.qos.logback.access.PatternLayout;
 import ch.qos.logback.access.PatternLayoutEncoder;
 import ch.qos.logback.access.jetty.RequestLogImpl;
 import ch.qos.logback.access.spi.IAccessEvent;
-import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
-import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.read.ListAppender;
 import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
+import com.rmnsc.logging.AsyncBatchAppender;
+import com.rmnsc.logging.StartupBuffer;
 import java.io.File;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.RequestLogHandler;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Slf4jLog;
 import org.eclipse.jetty.webapp.Configuration;
@@ -37,7 +40,52 @@ import org.slf4j.LoggerFactory;
  */
 class StartJettyHelper {
 
-    public static void startJetty(String warPath, File jettyTmpDir, int port) throws Exception {
+    private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(StartJettyHelper.class);
+    // Shared with com.rmnsc.startup.StartupTimeline
+    private static final String STARTUP_PHASES_ATTRIBUTE = "embeddedcontainer.startupPhases";
+    private static final String STARTUP_REPORT_ATTRIBUTE = "embeddedcontainer.startupReport";
+    // Shared with com.rmnsc.startup.WarmUp
+    private static final String READY_ATTRIBUTE = "embeddedcontainer.ready";
+    private static final String READINESS_CLAIMED_ATTRIBUTE = "embeddedcontainer.readinessClaimed";
+    private static final String PORT_ATTRIBUTE = "embeddedcontainer.port";
+    private static final String JETTY_START_PHASE = "jettyStart";
+
+    /**
+     * Adds a fixed classpath to the webapp instead of scanning WEB-INF. Used
+     * when running straight from the WAR, since Jetty can't put jars nested in
+     * a WAR on the classpath.
+     */
+    private static final class FixedClasspathWebInfConfiguration extends WebInfConfiguration {
+
+        private final String[] classpath;
+
+        FixedClasspathWebInfConfiguration(String[] classpath) {
+            this.classpath = classpath;
+        }
+
+        @Override
+        public void configure(WebAppContext context) throws Exception {
+            WebAppClassLoader webAppClassLoader = (WebAppClassLoader) context.getClassLoader();
+            for (String classpathEntry : classpath) {
+                webAppClassLoader.addClassPath(classpathEntry);
+            }
+        }
+    }
+
+    /**
+     * @param warPath the extracted WAR, or the WAR itself if webappClasspath
+     * is given
+     * @param webappClasspath URLs of the webapps classes and libs, null to
+     * let Jetty find them in WEB-INF
+     * @param jettyTmpDir empty temporary directory for Jetty
+     * @param port the HTTP port
+     * @param startupPhases phases of the startup so far, phase name to
+     * {start, end} in epoch millis
+     * @param startupReport where the webapp writes its startup report to
+     * @throws Exception
+     */
+    public static void startJetty(String warPath, String[] webappClasspath, File jettyTmpDir, int port,
+            Map<String, long[]> startupPhases, File startupReport) throws Exception {
         // Temporarily configure logback. Will be overwritten by webapp later.
         // Buffer all messages and forward them to the webapp, so they can be logged with the real configuration.
 
@@ -47,31 +95,49 @@ class StartJettyHelper {
 
         Logger rootLogger = (Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
 
-        ListAppender<ILoggingEvent> listAppender = new ListAppender<>();
-        listAppender.setContext(loggerContext);
-        listAppender.setName("STARTUP_BUFFER");
-        listAppender.start();
+        Properties props = ServerTuning.readProperties(StartJettyHelper.class.getClassLoader());
+
+        StartupBuffer startupBuffer = StartupBuffer.fromProperties(props);
+        startupBuffer.setContext(loggerContext);
+        startupBuffer.start();
+
+        rootLogger.addAppender(startupBuffer);
+        // Events below are not even created.
+        rootLogger.setLevel(startupBuffer.getLevel());
 
-        rootLogger.addAppender(listAppender);
-        rootLogger.setLevel(Level.ALL);
+        // The launcher could not log yet.
+        synchronized (startupPhases) {
+            for (Map.Entry<String, long[]> phase : startupPhases.entrySet()) {
+                LOGGER.info("startup phase {} took {}ms", phase.getKey(), phase.getValue()[1] - phase.getValue()[0]);
+            }
+        }
 
         org.eclipse.jetty.util.log.Logger jettyLog = new Slf4jLog(Slf4jLog.class.getPackage().getName());
 
         Log.setLog(jettyLog);
 
+        ServerTuning serverTuning = new ServerTuning(props, Runtime.getRuntime().availableProcessors());
+        LOGGER.info("server tuning: {}", serverTuning);
+
         HandlerCollection handlers = new HandlerCollection();
 
         WebAppContext webapp = new WebAppContext();
-        handlers.addHandler(webapp);
+        // Load balancers stop sending requests when the server is not ready.
+        AtomicInteger ready = new AtomicInteger(ReadinessHandler.STARTING);
+        ReadinessHandler readinessHandler = new ReadinessHandler(serverTuning.getReadinessPath(), ready);
+        readinessHandler.setHandler(serverTuning.limitConcurrency(serverTuning.compress(webapp)));
+        handlers.addHandler(readinessHandler);
 
         // Force everything to the logging classes in this classloader.
         webapp.addSystemClass("org.slf4j.");
         webapp.addSystemClass("ch.qos.logback.");
+        // The webapp replays the StartupBuffer.
+        webapp.addSystemClass("com.rmnsc.logging.");
 
         webapp.setLogger(jettyLog);
         webapp.setLogUrlOnStart(true);
 
-        configureHttpAccessLogging(handlers);
+        configureHttpAccessLogging(handlers, props);
 
         webapp.setCopyWebDir(false);
         webapp.setCopyWebInf(false);
@@ -79,45 +145,61 @@ class StartJettyHelper {
 
         webapp.setWar(warPath);
 
+        // Let the webapp complete and report the startup timeline.
+        webapp.setAttribute(STARTUP_PHASES_ATTRIBUTE, startupPhases);
+        webapp.setAttribute(STARTUP_REPORT_ATTRIBUTE, startupReport);
+        // Let the webapp warm up before it reports to be ready.
+        webapp.setAttribute(READY_ATTRIBUTE, ready);
+        webapp.setAttribute(PORT_ATTRIBUTE, port);
+
         WebAppClassLoader webAppClassLoader = new WebAppClassLoader(StartJettyHelper.class.getClassLoader(), webapp);
 
         webapp.setClassLoader(webAppClassLoader);
 
-        webapp.setConfigurations(new Configuration[]{
-            new WebInfConfiguration(),
-            new WebXmlConfiguration(),
-            new MetaInfConfiguration(),
-            new FragmentConfiguration()
-        });
-
-        final Server server = new Server(port);
-
-        server.setHandler(handlers);
-        server.setStopAtShutdown(true);
-        server.setStopTimeout(5000);
+        if (webappClasspath == null) {
+            webapp.setConfigurations(new Configuration[]{
+                new WebInfConfiguration(),
+                new WebXmlConfiguration(),
+                new MetaInfConfiguration(),
+                new FragmentConfiguration()
+            });
+        } else {
+            // Serve everything straight from the WAR.
+            webapp.setExtractWAR(false);
+            // Jars nested in the WAR can't be scanned for fragments and META-INF resources.
+            // web.xml ignores them anyway (absolute-ordering).
+            webapp.setConfigurations(new Configuration[]{
+                new FixedClasspathWebInfConfiguration(webappClasspath),
+                new WebXmlConfiguration()
+            });
+        }
+
+        final Server server = serverTuning.createServer(port);
+
+        // Counts in-flight requests, and lets Jetty wait for them on stop.
+        StatisticsHandler statisticsHandler = new StatisticsHandler();
+        statisticsHandler.setHandler(handlers);
+        server.setHandler(statisticsHandler);
 
         // Give Jetty time to shutdown cleanly (CTRL + C in the console).
-        Runtime.getRuntime()
-                .addShutdownHook(new Thread() {
-                    @Override
-                    public void run() {
-                        // Shutdown jetty.
-                        try {
-                            server.stop();
-                        } catch (Exception ex) {
-                            // The server could not be stopped.
-                            // Well, it will be soon, together with the whole JVM.
-                        }
-                    }
-                });
+        Runtime.getRuntime().addShutdownHook(
+                new GracefulShutdown(server, statisticsHandler, ready, serverTuning.getDrainDelay()));
 
         Thread.currentThread().setContextClassLoader(webAppClassLoader);
 
+        long jettyStart = System.currentTimeMillis();
         server.start();
+        long jettyStarted = System.currentTimeMillis();
+        if (!Boolean.TRUE.equals(webapp.getServletContext().getAttribute(READINESS_CLAIMED_ATTRIBUTE))) {
+            // Unless the shutdown already began.
+            ready.compareAndSet(ReadinessHandler.STARTING, ReadinessHandler.READY);
+        }
+        startupPhases.put(JETTY_START_PHASE, new long[]{jettyStart, jettyStarted});
+        LOGGER.info("startup phase {} took {}ms", JETTY_START_PHASE, jettyStarted - jettyStart);
         server.join();
     }
 
-    private static void configureHttpAccessLogging(HandlerCollection handlers) {
+    private static void configureHttpAccessLogging(HandlerCollection handlers, Properties props) {
         // Configure logback-access
         RequestLogHandler requestLogHandler = new RequestLogHandler();
         RequestLogImpl requestLogImpl = new RequestLogImpl();
@@ -150,7 +232,8 @@ class StartJettyHelper {
 
         // we just configured everything in code, ignore missing logback-access.xml file
         requestLogImpl.setQuiet(true);
-        requestLogImpl.addAppender(rollingFileAppender);
+        // Written by a separate thread, if log.async is set.
+        requestLogImpl.addAppender(AsyncBatchAppender.wrapIfEnabled(rollingFileAppender, props));
         requestLogHandler.setRequestLog(requestLogImpl);
 
         handlers.addHandler(requestLogHandler);
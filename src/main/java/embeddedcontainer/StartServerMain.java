@@ -1,5 +1,6 @@
 package embeddedcontainer;
 
+import embeddedcontainer.archive.WarArchive;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,9 +16,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -31,8 +38,23 @@ class StartServerMain {
     static final String EMBEDDED_CONTAINER_DIR = StartServerMain.class.getPackage().getName();
     // relative dir containing the container jars.
     static final String EMBEDDED_CONTAINER_LIB_DIR = EMBEDDED_CONTAINER_DIR + "/lib";
+    static final String WEBAPP_CLASSES_DIR = "WEB-INF/classes";
+    static final String WEBAPP_LIB_DIR = "WEB-INF/lib";
+    static final String EXTRACTION_MODE_PROP = "war.extraction";
+    // Wipe the working directory and extract the WAR on every start.
+    static final String EXTRACTION_FRESH = "fresh";
+    // Extract each WAR only once, keyed by its content hash.
+    static final String EXTRACTION_CACHED = "cached";
+    // Run straight from the WAR, nothing is extracted.
+    static final String EXTRACTION_NONE = "none";
+    static final String EXTRACTION_THREADS_PROP = "war.extraction.threads";
+    // Written to the working directory once the first request was served.
+    static final String STARTUP_REPORT_FILE = "startup-report.json";
+    static final String WORK_DIR_CLEANUP_PHASE = "workDirCleanup";
+    static final String EXTRACTION_PHASE = "extraction";
+    static final String CLASSLOADER_CONSTRUCTION_PHASE = "classLoaderConstruction";
     // Deletes files and directories recursively.
-    private static final FileVisitor<Path> DIR_TERMINATOR = new SimpleFileVisitor<Path>() {
+    static final FileVisitor<Path> DIR_TERMINATOR = new SimpleFileVisitor<Path>() {
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
                 throws IOException {
@@ -57,39 +79,100 @@ class StartServerMain {
                 .toURI());
         Path warContainingDir = warLocation.getParent();
 
+        // Class data sharing needs JVM options, set by the start script or a new JVM.
+        String cdsMode = System.getProperty(ClassDataSharing.CDS_PROP, ClassDataSharing.CDS_AUTO);
+        Path cdsDir = warContainingDir.resolve(System.getProperty(ClassDataSharing.CDS_DIR_PROP, "cds"));
+        switch (cdsMode) {
+            case ClassDataSharing.CDS_AUTO:
+                ClassDataSharing.printArchiveHint(cdsDir);
+                break;
+            case ClassDataSharing.CDS_RELAUNCH:
+                Path sharedArchive = ClassDataSharing.findArchive(cdsDir, warLocation);
+                if (sharedArchive != null && ClassDataSharing.canRelaunch()) {
+                    System.exit(ClassDataSharing.runWithArchive(sharedArchive, warLocation, args));
+                }
+                break;
+            case ClassDataSharing.CDS_TRAIN:
+                System.exit(ClassDataSharing.train(cdsDir, warLocation, args));
+                break;
+            case ClassDataSharing.CDS_OFF:
+            case ClassDataSharing.CDS_TRAINING_RUN:
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "unknown " + ClassDataSharing.CDS_PROP + ": " + cdsMode
+                        + ", must be one of (" + ClassDataSharing.CDS_AUTO + ", " + ClassDataSharing.CDS_RELAUNCH
+                        + ", " + ClassDataSharing.CDS_OFF + ", " + ClassDataSharing.CDS_TRAIN + ")");
+        }
+
+        // Phases of the startup, handed over to the webapp for its startup report.
+        Map<String, long[]> startupPhases = Collections.synchronizedMap(new LinkedHashMap<String, long[]>());
+
         // Working folder for the whole application.
-        Path workDir = warContainingDir.resolve(System.getProperty("work.dir", "work"));
-        // Do the cleanup on startup since shutdown-hooks are unreliable.
-        workDir = prepareWorkDir(workDir);
+        Path workRootDir = warContainingDir.resolve(System.getProperty("work.dir", "work"));
+        String extractionMode = determineExtractionMode();
+
+        Path workDir;
+        Path warTmpDir = null;
+        WarArchive war = null;
+        long phaseStart = System.currentTimeMillis();
+        switch (extractionMode) {
+            case EXTRACTION_FRESH:
+                // Do the cleanup on startup since shutdown-hooks are unreliable.
+                workDir = prepareWorkDir(workRootDir);
+                recordPhase(startupPhases, WORK_DIR_CLEANUP_PHASE, phaseStart);
+                phaseStart = System.currentTimeMillis();
+                warTmpDir = Files.createTempDirectory(workDir, "war-tmp-");
+                extractWar(warLocation, warTmpDir);
+                break;
+            case EXTRACTION_CACHED:
+                workDir = createWorkDir(workRootDir);
+                warTmpDir = WarExtractor.extractCached(warLocation, workRootDir, determineExtractionThreads());
+                // Everything else is stale. Don't let startup wait for its removal.
+                cleanupWorkRootDirInBackground(workRootDir, startupPhases, workDir, warTmpDir);
+                break;
+            case EXTRACTION_NONE:
+                workDir = createWorkDir(workRootDir);
+                war = WarArchive.open(warLocation);
+                cleanupWorkRootDirInBackground(workRootDir, startupPhases, workDir);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "unknown " + EXTRACTION_MODE_PROP + ": " + extractionMode
+                        + ", must be one of (" + EXTRACTION_FRESH + ", " + EXTRACTION_CACHED + ", " + EXTRACTION_NONE + ")");
+        }
+        recordPhase(startupPhases, EXTRACTION_PHASE, phaseStart);
 
         // Let libs use a separate folder to avoid collisions.
         String javaTmpDir = Files.createTempDirectory(workDir, "java-tmp-").toString();
         System.setProperty("java.io.tmpdir", javaTmpDir);
 
-        Path warTmpDir = Files.createTempDirectory(workDir, "war-tmp-");
-        extractWar(warLocation, warTmpDir);
-        
         // Jettys temporary directory must be empty on startup, so create a new one.
         File jettyTmpDir = Files.createTempDirectory(workDir, "jetty-tmp-").toFile();
+        File startupReport = workDir.resolve(STARTUP_REPORT_FILE).toFile();
 
-        File[] containerLibs = warTmpDir.resolve(EMBEDDED_CONTAINER_LIB_DIR).toFile().listFiles();
-        // Also load all libs of this webapp, so we can configure proper logging for the container.
-        File[] webappLibs = warTmpDir.resolve("WEB-INF/lib").toFile().listFiles();
-
-        URL[] serverClasspath = new URL[1 + containerLibs.length + webappLibs.length];
-        serverClasspath[0] = warTmpDir.toUri().toURL();
-
-        for (int i = 0; i < containerLibs.length; i++) {
-            serverClasspath[1 + i] = containerLibs[i].toURI().toURL();
-        }
-        for (int i = 0; i < webappLibs.length; i++) {
-            serverClasspath[1 + containerLibs.length + i] = webappLibs[i].toURI().toURL();
+        phaseStart = System.currentTimeMillis();
+        URL[] serverClasspath;
+        String warPath;
+        // Classpath of the webapp, if Jetty should not figure it out from WEB-INF by itself.
+        String[] webappClasspath;
+        if (war != null) {
+            serverClasspath = buildServerClasspath(war);
+            warPath = warLocation.toString();
+            webappClasspath = buildWebappClasspath(war);
+        } else {
+            serverClasspath = buildServerClasspath(warTmpDir);
+            warPath = warTmpDir.toString();
+            webappClasspath = null;
         }
 
         int port = determinePort();
         if (!isPortAvailable(port)) {
             throw new IllegalArgumentException("port is in use: " + port);
         }
+        if (ClassDataSharing.CDS_TRAINING_RUN.equals(cdsMode)) {
+            ClassDataSharing.startTrainingDriver(port);
+        }
 
         // This classloader will not have our package in its classpath.
         // We need this as the parent of our server-classloader, since URLClassLoader
@@ -99,8 +182,52 @@ class StartServerMain {
         ClassLoader extensionClassLoader = ClassLoader.getSystemClassLoader().getParent();
 
         URLClassLoader serverLoader = new URLClassLoader(serverClasspath, extensionClassLoader);
+        recordPhase(startupPhases, CLASSLOADER_CONSTRUCTION_PHASE, phaseStart);
         System.out.println("Starting server ...");
-        startJettyHelper(warTmpDir.toString(), jettyTmpDir, serverLoader, port);
+        startJettyHelper(warPath, webappClasspath, jettyTmpDir, serverLoader, port, startupPhases, startupReport);
+    }
+
+    private static void recordPhase(Map<String, long[]> startupPhases, String phase, long start) {
+        startupPhases.put(phase, new long[]{start, System.currentTimeMillis()});
+    }
+
+    private static URL[] buildServerClasspath(Path extractedWar) throws IOException {
+        File[] containerLibs = extractedWar.resolve(EMBEDDED_CONTAINER_LIB_DIR).toFile().listFiles();
+        // Also load all libs of this webapp, so we can configure proper logging for the container.
+        File[] webappLibs = extractedWar.resolve(WEBAPP_LIB_DIR).toFile().listFiles();
+
+        URL[] serverClasspath = new URL[1 + containerLibs.length + webappLibs.length];
+        serverClasspath[0] = extractedWar.toUri().toURL();
+
+        for (int i = 0; i < containerLibs.length; i++) {
+            serverClasspath[1 + i] = containerLibs[i].toURI().toURL();
+        }
+        for (int i = 0; i < webappLibs.length; i++) {
+            serverClasspath[1 + containerLibs.length + i] = webappLibs[i].toURI().toURL();
+        }
+        return serverClasspath;
+    }
+
+    private static URL[] buildServerClasspath(WarArchive war) throws IOException {
+        List<URL> serverClasspath = new ArrayList<>();
+        serverClasspath.add(war.getDirectoryUrl(""));
+        for (String containerLib : war.listJars(EMBEDDED_CONTAINER_LIB_DIR)) {
+            serverClasspath.add(war.getNestedJarUrl(containerLib));
+        }
+        // Also load all libs of this webapp, so we can configure proper logging for the container.
+        for (String webappLib : war.listJars(WEBAPP_LIB_DIR)) {
+            serverClasspath.add(war.getNestedJarUrl(webappLib));
+        }
+        return serverClasspath.toArray(new URL[serverClasspath.size()]);
+    }
+
+    private static String[] buildWebappClasspath(WarArchive war) throws IOException {
+        List<String> webappClasspath = new ArrayList<>();
+        webappClasspath.add(war.getDirectoryUrl(WEBAPP_CLASSES_DIR).toString());
+        for (String webappLib : war.listJars(WEBAPP_LIB_DIR)) {
+            webappClasspath.add(war.getNestedJarUrl(webappLib).toString());
+        }
+        return webappClasspath.toArray(new String[webappClasspath.size()]);
     }
 
     /**
@@ -126,12 +253,57 @@ class StartServerMain {
         if (!cleanupSuccessful) {
             System.out.println("Could not clean up working directory: " + workDir);
         }
+        return createWorkDir(workDir);
+    }
+
+    private static Path createWorkDir(Path workDir) throws IOException {
+        Files.createDirectories(workDir);
         // Always use a clean unique subfolder to remove any possibility of name clashes with remaining files.
         Path newWorkDir = Files.createTempDirectory(workDir, getWorkDirPrefix() + "--");
         System.out.println("Will use working directory: " + newWorkDir);
         return newWorkDir;
     }
 
+    /**
+     * Removes everything in the working directory except the given paths. Runs
+     * in a daemon thread, so startup does not have to wait for it.
+     *
+     * @param workDir the directory to clean up
+     * @param startupPhases where to record the duration of the cleanup
+     * @param keep paths directly inside workDir that are still in use
+     */
+    private static void cleanupWorkRootDirInBackground(final Path workDir, final Map<String, long[]> startupPhases, Path... keep) {
+        final List<Path> inUse = Arrays.asList(keep);
+        Thread cleanupThread = new Thread("work-dir-cleanup") {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                boolean cleanupSuccessful = true;
+                try (DirectoryStream<Path> workDirStream = Files.newDirectoryStream(workDir)) {
+                    for (Path workFile : workDirStream) {
+                        if (inUse.contains(workFile)) {
+                            continue;
+                        }
+                        try {
+                            Files.walkFileTree(workFile, DIR_TERMINATOR);
+                        } catch (IOException ex) {
+                            cleanupSuccessful = false;
+                        }
+                    }
+                } catch (IOException ex) {
+                    cleanupSuccessful = false;
+                }
+                if (!cleanupSuccessful) {
+                    System.out.println("Could not clean up working directory: " + workDir);
+                }
+                recordPhase(startupPhases, WORK_DIR_CLEANUP_PHASE, start);
+            }
+        };
+        cleanupThread.setDaemon(true);
+        cleanupThread.setPriority(Thread.MIN_PRIORITY);
+        cleanupThread.start();
+    }
+
     private static String getWorkDirPrefix() {
         // yyyy-mm-dd--hh-mm-ss
         return String.format("%1$tY-%1$tm-%1$td--%1$tH-%1$tM-%1$tS", Calendar.getInstance(Locale.getDefault()));
@@ -161,6 +333,28 @@ class StartServerMain {
         System.out.println("Extracted in: " + (System.currentTimeMillis() - start) + "ms");
     }
 
+    private static String determineExtractionMode() {
+        return System.getProperty(EXTRACTION_MODE_PROP, EXTRACTION_FRESH);
+    }
+
+    private static int determineExtractionThreads() {
+        String threadsProp = System.getProperty(EXTRACTION_THREADS_PROP);
+        if (threadsProp == null) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+        int threads;
+        try {
+            threads = Integer.parseInt(threadsProp);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(EXTRACTION_THREADS_PROP + " malformed: " + threadsProp, ex);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException(EXTRACTION_THREADS_PROP + " must be positive: " + threads);
+        }
+        return threads;
+    }
+
     private static int determinePort() {
         String portProp = System.getProperty("port");
         if (portProp == null) {
@@ -184,14 +378,15 @@ class StartServerMain {
         }
     }
 
-    private static void startJettyHelper(String warPath, File jettyTmpDir, ClassLoader serverLoader, int port) throws ReflectiveOperationException {
+    private static void startJettyHelper(String warPath, String[] webappClasspath, File jettyTmpDir, ClassLoader serverLoader, int port,
+            Map<String, long[]> startupPhases, File startupReport) throws ReflectiveOperationException {
         // There is no static initializer or anything, so using .class is fine in the system classloader.
         Class<?> startJettyHelper = serverLoader.loadClass(StartJettyHelper.class.getName());
-        Method startJetty = startJettyHelper.getDeclaredMethod("startJetty", String.class, File.class, Integer.TYPE);
+        Method startJetty = startJettyHelper.getDeclaredMethod("startJetty", String.class, String[].class, File.class, Integer.TYPE, Map.class, File.class);
         startJetty.setAccessible(true);
 
         // Isolate ALL the things.
         Thread.currentThread().setContextClassLoader(serverLoader);
-        startJetty.invoke(null, warPath, jettyTmpDir, port);
+        startJetty.invoke(null, warPath, webappClasspath, jettyTmpDir, port, startupPhases, startupReport);
     }
 }
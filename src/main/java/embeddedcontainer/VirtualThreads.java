@@ -0,0 +1,57 @@
+package embeddedcontainer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors that run each task on a new virtual thread. Virtual
+ * threads need Java 21 or later, while this code is compiled for Java 7, so
+ * they are created through reflection.
+ *
+ * @author Thomas
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads.
+     */
+    static boolean isAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Same as
+     * {@code Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory())}.
+     *
+     * @param namePrefix prefix of the thread names, followed by a counter
+     * @return the executor.
+     */
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            // Public interfaces, the implementing classes are not accessible.
+            Class<?> builderInterface = Class.forName("java.lang.Thread$Builder");
+            builder = builderInterface.getMethod("name", String.class, Long.TYPE).invoke(builder, namePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderInterface.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException ex) {
+            throw new IllegalStateException("virtual threads need java 21 or later, running: "
+                    + System.getProperty("java.version"), ex);
+        } catch (InvocationTargetException ex) {
+            throw new IllegalStateException("could not create virtual thread executor", ex.getCause());
+        }
+    }
+}
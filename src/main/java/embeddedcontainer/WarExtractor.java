@@ -0,0 +1,204 @@
+package embeddedcontainer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts the WAR into a directory named after the hash of its content. An
+ * unchanged WAR is extracted only once and reused on every following start.
+ *
+ * Only uses JDK classes, since it runs before any libs are on the classpath.
+ *
+ * @author Thomas
+ */
+final class WarExtractor {
+
+    // Prefix of the content-addressed extraction directories in the working folder.
+    static final String EXTRACTED_WAR_PREFIX = "war-";
+    private static final String PARTIAL_SUFFIX = ".partial-";
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    // Biggest entries first, so that no thread is left alone with a huge jar at the end.
+    private static final Comparator<ZipEntry> BIGGEST_FIRST = new Comparator<ZipEntry>() {
+        @Override
+        public int compare(ZipEntry left, ZipEntry right) {
+            return Long.compare(right.getSize(), left.getSize());
+        }
+    };
+
+    private WarExtractor() {
+    }
+
+    /**
+     * Returns a directory containing the extracted content of the WAR. The
+     * directory is reused if the WAR did not change since the last start.
+     *
+     * @param warLocation the WAR to extract
+     * @param workDir directory containing all extracted WARs
+     * @param threads number of threads used for extraction
+     * @return the directory containing the extracted WAR.
+     * @throws IOException
+     */
+    static Path extractCached(Path warLocation, Path workDir, int threads) throws IOException {
+        long start = System.currentTimeMillis();
+        String warHash = hash(warLocation);
+        System.out.println("Hashed in: " + (System.currentTimeMillis() - start) + "ms, hash: " + warHash);
+
+        Path extractedWar = workDir.resolve(EXTRACTED_WAR_PREFIX + warHash);
+        // The directory is renamed into place only after it was fully extracted.
+        // So if it exists, it is complete.
+        if (Files.isDirectory(extractedWar)) {
+            System.out.println("Reusing extracted war: " + extractedWar);
+            return extractedWar;
+        }
+
+        Path partialWar = Files.createTempDirectory(workDir, EXTRACTED_WAR_PREFIX + warHash + PARTIAL_SUFFIX);
+        extractParallel(warLocation, partialWar, threads);
+        try {
+            Files.move(partialWar, extractedWar, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // Someone else was faster. Use theirs, ours will be removed with the other stale directories.
+            if (!Files.isDirectory(extractedWar)) {
+                throw ex;
+            }
+        }
+        return extractedWar;
+    }
+
+    /**
+     * Hashes the content of the given file.
+     *
+     * @param file the file to hash
+     * @return lowercase hex representation of the hash.
+     * @throws IOException
+     */
+    static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("every JVM has to support " + HASH_ALGORITHM, ex);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Extracts the WAR using multiple threads. All directories are created up
+     * front, then the files are distributed over the threads.
+     *
+     * @param warLocation the WAR to extract
+     * @param destFolder where to extract to
+     * @param threads number of threads used for extraction
+     * @throws IOException
+     */
+    static void extractParallel(Path warLocation, final Path destFolder, int threads) throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(destFolder);
+        // ZipFile is safe to read from multiple threads.
+        try (final ZipFile warFile = new ZipFile(warLocation.toFile())) {
+            final List<ZipEntry> files = new ArrayList<>(warFile.size());
+            Set<Path> dirs = new HashSet<>();
+            Enumeration<? extends ZipEntry> entries = warFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Path file = destFolder.resolve(entry.getName());
+                if (entry.isDirectory()) {
+                    dirs.add(file);
+                } else {
+                    dirs.add(file.getParent());
+                    files.add(entry);
+                }
+            }
+            for (Path dir : dirs) {
+                Files.createDirectories(dir);
+            }
+            Collections.sort(files, BIGGEST_FIRST);
+
+            final AtomicInteger nextFile = new AtomicInteger();
+            List<Callable<Void>> extractors = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                extractors.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        int fileIdx;
+                        while ((fileIdx = nextFile.getAndIncrement()) < files.size()) {
+                            ZipEntry entry = files.get(fileIdx);
+                            try (InputStream entryIn = warFile.getInputStream(entry)) {
+                                Files.copy(entryIn, destFolder.resolve(entry.getName()));
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            invokeAll(extractors, threads);
+        }
+        System.out.println("Extracted in: " + (System.currentTimeMillis() - start) + "ms, threads: " + threads);
+    }
+
+    private static void invokeAll(List<Callable<Void>> tasks, int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "war-extractor-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while extracting", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("failed to extract", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
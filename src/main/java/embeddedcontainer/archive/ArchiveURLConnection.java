@@ -0,0 +1,109 @@
+package embeddedcontainer.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Connection to an entry of the WAR or one of its nested jars.
+ *
+ * @author Thomas
+ */
+final class ArchiveURLConnection extends URLConnection {
+
+    /**
+     * Class loaders ask every classpath entry in turn for each class, so most
+     * lookups miss. Filling in the stacktrace every time would be a waste.
+     */
+    private static final class EntryNotFoundException extends FileNotFoundException {
+
+        private static final long serialVersionUID = 1L;
+
+        EntryNotFoundException(String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static final byte[] NO_CONTENT = new byte[0];
+
+    private final WarArchive archive;
+    private ZipIndex index;
+    // null for directories.
+    private ZipIndex.Entry entry;
+
+    ArchiveURLConnection(URL url, WarArchive archive) {
+        super(url);
+        this.archive = archive;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        String path = decode(url.getPath());
+        int separatorIdx = path.indexOf(WarArchive.SEPARATOR);
+        if (!path.startsWith("/") || separatorIdx == -1) {
+            throw new IOException("malformed " + WarArchive.PROTOCOL + " URL: " + url);
+        }
+        String containerName = path.substring(1, separatorIdx);
+        String entryName = path.substring(separatorIdx + WarArchive.SEPARATOR.length());
+
+        index = archive.getIndex(containerName);
+        if (index == null) {
+            throw new EntryNotFoundException(url.toString());
+        }
+        entry = index.getEntry(entryName);
+        if (entry == null && !index.isDirectory(entryName)) {
+            throw new EntryNotFoundException(url.toString());
+        }
+        connected = true;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        connect();
+        // A new stream every time, class loaders open the same connection more than once.
+        return entry == null ? new ByteArrayInputStream(NO_CONTENT) : index.getInputStream(entry);
+    }
+
+    @Override
+    public int getContentLength() {
+        long contentLength = getContentLengthLong();
+        return contentLength > Integer.MAX_VALUE ? -1 : (int) contentLength;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        try {
+            connect();
+        } catch (IOException ex) {
+            return -1;
+        }
+        return entry == null ? 0 : entry.getSize();
+    }
+
+    @Override
+    public long getLastModified() {
+        return archive.getLastModified();
+    }
+
+    private static String decode(String path) throws UnsupportedEncodingException {
+        if (path.indexOf('%') == -1) {
+            return path;
+        }
+        // URLDecoder is meant for forms, a plus is no space in paths.
+        return URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,21 @@
+package embeddedcontainer.archive;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+/**
+ * Handles archive: URLs, see {@link WarArchive}. Found by the JDK through the
+ * java.protocol.handler.pkgs system property, so the name of this class is
+ * fixed.
+ *
+ * @author Thomas
+ */
+public class Handler extends URLStreamHandler {
+
+    @Override
+    protected URLConnection openConnection(URL url) throws IOException {
+        return new ArchiveURLConnection(url, WarArchive.get());
+    }
+}
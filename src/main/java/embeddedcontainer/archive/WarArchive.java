@@ -0,0 +1,170 @@
+package embeddedcontainer.archive;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The WAR this application was started from, memory-mapped and served through
+ * URLs of the form:
+ *
+ * <pre>
+ * archive:/!/WEB-INF/classes/com/rmnsc/...          entries of the WAR itself
+ * archive:/WEB-INF/lib/some.jar!/org/springframework/... entries of a nested jar
+ * </pre>
+ *
+ * So the WAR never has to be extracted to disk. Nested jars that are stored
+ * uncompressed inside the WAR are read straight from the mapped file, others
+ * are inflated into memory once on first access.
+ *
+ * Only uses JDK classes, since it runs before any libs are on the classpath.
+ *
+ * @author Thomas
+ */
+public final class WarArchive {
+
+    static final String PROTOCOL = "archive";
+    static final String SEPARATOR = "!/";
+    // The JDK looks for the protocol handler class <package>.<protocol>.Handler in these packages.
+    private static final String PROTOCOL_HANDLER_PACKAGES_PROP = "java.protocol.handler.pkgs";
+    private static final String PROTOCOL_HANDLER_PACKAGE = WarArchive.class.getPackage().getName()
+            .substring(0, WarArchive.class.getPackage().getName().lastIndexOf('.'));
+
+    private static volatile WarArchive openedArchive;
+
+    /**
+     * Maps the WAR into memory and makes its content available through
+     * archive: URLs. Only one WAR can be opened per JVM.
+     *
+     * @param warLocation the WAR to open
+     * @return the opened WAR.
+     * @throws IOException
+     */
+    public static synchronized WarArchive open(Path warLocation) throws IOException {
+        if (openedArchive != null) {
+            throw new IllegalStateException("already opened: " + openedArchive.warLocation);
+        }
+        long start = System.currentTimeMillis();
+        WarArchive archive = new WarArchive(warLocation);
+        registerProtocolHandler();
+        openedArchive = archive;
+        System.out.println("Opened war in: " + (System.currentTimeMillis() - start) + "ms");
+        return archive;
+    }
+
+    static WarArchive get() throws IOException {
+        WarArchive archive = openedArchive;
+        if (archive == null) {
+            throw new IOException("no war opened, can not serve " + PROTOCOL + " URLs");
+        }
+        return archive;
+    }
+
+    private static void registerProtocolHandler() {
+        String handlerPackages = System.getProperty(PROTOCOL_HANDLER_PACKAGES_PROP);
+        if (handlerPackages == null || handlerPackages.isEmpty()) {
+            handlerPackages = PROTOCOL_HANDLER_PACKAGE;
+        } else {
+            handlerPackages = PROTOCOL_HANDLER_PACKAGE + "|" + handlerPackages;
+        }
+        System.setProperty(PROTOCOL_HANDLER_PACKAGES_PROP, handlerPackages);
+    }
+
+    private final Path warLocation;
+    private final long lastModified;
+    private final ZipIndex warIndex;
+    // Nested jars are indexed on first access.
+    private final ConcurrentMap<String, ZipIndex> nestedIndexes;
+
+    private WarArchive(Path warLocation) throws IOException {
+        this.warLocation = warLocation;
+        this.lastModified = Files.getLastModifiedTime(warLocation).toMillis();
+        ByteBuffer war;
+        try (FileChannel warChannel = FileChannel.open(warLocation, StandardOpenOption.READ)) {
+            if (warChannel.size() > Integer.MAX_VALUE) {
+                throw new IOException("war too large to be mapped, extract it instead: " + warLocation);
+            }
+            // The mapping stays valid after closing the channel.
+            war = warChannel.map(FileChannel.MapMode.READ_ONLY, 0, warChannel.size());
+        }
+        this.warIndex = new ZipIndex(warLocation.toString(), war);
+        this.nestedIndexes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Lists all jars directly inside the given directory of the WAR.
+     *
+     * @param dirName directory name without trailing slash, e.g. WEB-INF/lib
+     * @return the entry names of the jars.
+     */
+    public List<String> listJars(String dirName) {
+        List<String> jars = new ArrayList<>();
+        for (String fileName : warIndex.listFiles(dirName)) {
+            if (fileName.endsWith(".jar")) {
+                jars.add(fileName);
+            }
+        }
+        return jars;
+    }
+
+    /**
+     * Returns the URL of a directory in the WAR, usable as classpath entry.
+     *
+     * @param dirName directory name without trailing slash, empty for the root
+     * @return the URL of the directory.
+     * @throws MalformedURLException
+     */
+    public URL getDirectoryUrl(String dirName) throws MalformedURLException {
+        return new URL(PROTOCOL + ":/" + SEPARATOR + (dirName.isEmpty() ? "" : dirName + "/"));
+    }
+
+    /**
+     * Returns the URL of the root of a jar nested in the WAR, usable as
+     * classpath entry.
+     *
+     * @param jarName entry name of the jar, e.g. WEB-INF/lib/some.jar
+     * @return the URL of the jar root.
+     * @throws MalformedURLException
+     */
+    public URL getNestedJarUrl(String jarName) throws MalformedURLException {
+        return new URL(PROTOCOL + ":/" + jarName + SEPARATOR);
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the index of the WAR or a jar nested in it.
+     *
+     * @param containerName empty for the WAR, the entry name of a nested jar
+     * otherwise
+     * @return the index, null if there is no such jar.
+     * @throws IOException
+     */
+    ZipIndex getIndex(String containerName) throws IOException {
+        if (containerName.isEmpty()) {
+            return warIndex;
+        }
+        ZipIndex nestedIndex = nestedIndexes.get(containerName);
+        if (nestedIndex != null) {
+            return nestedIndex;
+        }
+        ZipIndex.Entry nestedJar = warIndex.getEntry(containerName);
+        if (nestedJar == null) {
+            return null;
+        }
+        nestedIndex = new ZipIndex(warLocation + SEPARATOR + containerName, warIndex.getContent(nestedJar));
+        ZipIndex concurrentIndex = nestedIndexes.putIfAbsent(containerName, nestedIndex);
+        return concurrentIndex == null ? nestedIndex : concurrentIndex;
+    }
+}
@@ -0,0 +1,263 @@
+package embeddedcontainer.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a zip file held in a {@link ByteBuffer}. Only the central
+ * directory is parsed up front, entries are read on demand.
+ *
+ * Zip64 is not supported. The WAR and its libs are way too small for that.
+ *
+ * @author Thomas
+ */
+final class ZipIndex {
+
+    static final class Entry {
+
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        private Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    private static final int END_OF_CENTRAL_DIR_SIG = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int CENTRAL_DIR_HEADER_SIG = 0x02014b50;
+    private static final int CENTRAL_DIR_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final String description;
+    private final ByteBuffer zip;
+    private final Map<String, Entry> files;
+    // Names of all directories without trailing slash, including those only implied by file names.
+    private final Set<String> directories;
+
+    ZipIndex(String description, ByteBuffer zip) throws IOException {
+        this.description = description;
+        this.zip = zip.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.files = new HashMap<>();
+        this.directories = new HashSet<>();
+        readCentralDirectory();
+    }
+
+    Entry getEntry(String name) {
+        return files.get(name);
+    }
+
+    boolean isDirectory(String name) {
+        if (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name.isEmpty() || directories.contains(name);
+    }
+
+    /**
+     * Lists the files directly inside the given directory.
+     *
+     * @param dirName directory name without trailing slash
+     * @return full entry names, sorted.
+     */
+    List<String> listFiles(String dirName) {
+        String prefix = dirName + "/";
+        List<String> dirFiles = new ArrayList<>();
+        for (String fileName : files.keySet()) {
+            if (fileName.startsWith(prefix) && fileName.indexOf('/', prefix.length()) == -1) {
+                dirFiles.add(fileName);
+            }
+        }
+        Collections.sort(dirFiles);
+        return dirFiles;
+    }
+
+    InputStream getInputStream(Entry entry) throws IOException {
+        ByteBuffer data = getRawData(entry);
+        switch (entry.method) {
+            case STORED:
+                return new ByteBufferInputStream(data);
+            case DEFLATED:
+                return new EntryInflaterInputStream(new ByteBufferInputStream(data));
+            default:
+                throw new ZipException("unsupported compression method " + entry.method + " of " + entry.name + " in " + description);
+        }
+    }
+
+    /**
+     * Returns the uncompressed content of the entry. Stored entries are not
+     * copied, but returned as a view into this zip.
+     *
+     * @param entry
+     * @return the content of the entry
+     * @throws IOException
+     */
+    ByteBuffer getContent(Entry entry) throws IOException {
+        if (entry.method == STORED) {
+            return getRawData(entry);
+        }
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new ZipException("entry too large: " + entry.name + " in " + description);
+        }
+        byte[] content = new byte[(int) entry.size];
+        try (InputStream in = getInputStream(entry)) {
+            int read = 0;
+            while (read < content.length) {
+                int count = in.read(content, read, content.length - read);
+                if (count == -1) {
+                    throw new ZipException("unexpected end of entry: " + entry.name + " in " + description);
+                }
+                read += count;
+            }
+        }
+        return ByteBuffer.wrap(content);
+    }
+
+    private ByteBuffer getRawData(Entry entry) throws IOException {
+        int headerOffset = checkOffset(entry.localHeaderOffset);
+        if (zip.getInt(headerOffset) != LOCAL_HEADER_SIG) {
+            throw new ZipException("invalid local header of " + entry.name + " in " + description);
+        }
+        int nameLength = zip.getShort(headerOffset + 26) & 0xFFFF;
+        int extraLength = zip.getShort(headerOffset + 28) & 0xFFFF;
+        int dataOffset = headerOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+
+        ByteBuffer data = zip.duplicate();
+        data.position(dataOffset);
+        data.limit(checkOffset(dataOffset + entry.compressedSize));
+        return data.slice();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        int endOfCentralDir = findEndOfCentralDirectory();
+        int entryCount = zip.getShort(endOfCentralDir + 10) & 0xFFFF;
+        int offset = checkOffset(zip.getInt(endOfCentralDir + 16) & ZIP64_MAGIC);
+
+        byte[] nameBytes = new byte[256];
+        for (int i = 0; i < entryCount; i++) {
+            if (zip.getInt(offset) != CENTRAL_DIR_HEADER_SIG) {
+                throw new ZipException("invalid central directory header in " + description);
+            }
+            int method = zip.getShort(offset + 10) & 0xFFFF;
+            long compressedSize = zip.getInt(offset + 20) & ZIP64_MAGIC;
+            long size = zip.getInt(offset + 24) & ZIP64_MAGIC;
+            int nameLength = zip.getShort(offset + 28) & 0xFFFF;
+            int extraLength = zip.getShort(offset + 30) & 0xFFFF;
+            int commentLength = zip.getShort(offset + 32) & 0xFFFF;
+            long localHeaderOffset = zip.getInt(offset + 42) & ZIP64_MAGIC;
+            if (compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+                throw new ZipException("zip64 is not supported: " + description);
+            }
+
+            if (nameBytes.length < nameLength) {
+                nameBytes = new byte[nameLength];
+            }
+            ByteBuffer nameBuffer = zip.duplicate();
+            nameBuffer.position(offset + CENTRAL_DIR_HEADER_SIZE);
+            nameBuffer.get(nameBytes, 0, nameLength);
+            // Jars always use UTF-8 for entry names.
+            String name = new String(nameBytes, 0, nameLength, StandardCharsets.UTF_8);
+
+            if (name.endsWith("/")) {
+                addDirectory(name.substring(0, name.length() - 1));
+            } else {
+                files.put(name, new Entry(name, method, compressedSize, size, localHeaderOffset));
+                int lastSlash = name.lastIndexOf('/');
+                if (lastSlash != -1) {
+                    addDirectory(name.substring(0, lastSlash));
+                }
+            }
+            offset += CENTRAL_DIR_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private void addDirectory(String dirName) {
+        // Add parents until one is already known.
+        while (!dirName.isEmpty() && directories.add(dirName)) {
+            int lastSlash = dirName.lastIndexOf('/');
+            dirName = lastSlash == -1 ? "" : dirName.substring(0, lastSlash);
+        }
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        int last = zip.limit() - END_OF_CENTRAL_DIR_SIZE;
+        int first = Math.max(0, last - MAX_COMMENT_SIZE);
+        // Usually there is no comment, so this finds it on the first try.
+        for (int offset = last; offset >= first; offset--) {
+            if (zip.getInt(offset) == END_OF_CENTRAL_DIR_SIG) {
+                return offset;
+            }
+        }
+        throw new ZipException("not a zip file: " + description);
+    }
+
+    private int checkOffset(long offset) throws ZipException {
+        if (offset < 0 || offset > zip.limit()) {
+            throw new ZipException("invalid offset " + offset + " in " + description);
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Zip entries are raw deflate streams, which may need an additional dummy
+     * byte at the end. {@link java.util.zip.ZipFile} does the same.
+     */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+
+        private boolean eof;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new ZipException("unexpected end of zip entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            // Not the default inflater, so super does not release it.
+            inf.end();
+        }
+    }
+}
@@ -0,0 +1,5 @@
+-- The table as it was created by hand before migrations, so existing databases can skip this.
+CREATE TABLE IF NOT EXISTS todo_item (
+    todo_item_id bigserial PRIMARY KEY,
+    description text NOT NULL
+);
@@ -0,0 +1,4 @@
+-- Full-text index for dml/query_todo_item_search.sql, which must use the same expression.
+-- The simple configuration does not stem, descriptions are in any language.
+-- Not CONCURRENTLY: Flyway runs each migration in a transaction. Writes wait while the index builds.
+CREATE INDEX todo_item_description_search ON todo_item USING gin (to_tsvector('simple', description));
@@ -0,0 +1 @@
+COPY todo_item(description) FROM STDIN
\ No newline at end of file
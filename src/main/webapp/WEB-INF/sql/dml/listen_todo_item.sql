@@ -0,0 +1 @@
+LISTEN todo_item;
\ No newline at end of file
@@ -0,0 +1 @@
+NOTIFY todo_item;
\ No newline at end of file
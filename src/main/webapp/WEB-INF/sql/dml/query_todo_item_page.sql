@@ -0,0 +1 @@
+SELECT todo_item_id, description FROM todo_item WHERE todo_item_id > :after ORDER BY todo_item_id LIMIT :limit;
\ No newline at end of file
@@ -0,0 +1 @@
+SELECT todo_item_id, description FROM todo_item WHERE to_tsvector('simple', description) @@ plainto_tsquery('simple', :query) ORDER BY ts_rank(to_tsvector('simple', description), plainto_tsquery('simple', :query)) DESC, todo_item_id LIMIT :limit;
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.rmnsc.persistence;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ * @author Thomas
+ */
+public class TodoDaoJdbcTest {
+
+    private static String copyText(String value) throws IOException {
+        StringWriter writer = new StringWriter();
+        TodoDaoJdbc.writeCopyText(writer, value);
+        return writer.toString();
+    }
+
+    @Test
+    public void copyTextKeepsPlainValues() throws IOException {
+        assertEquals("buy milk", copyText("buy milk"));
+        assertEquals("", copyText(""));
+        assertEquals("Grüße, ✓ \"quoted\" 'single'", copyText("Grüße, ✓ \"quoted\" 'single'"));
+    }
+
+    @Test
+    public void copyTextEscapesRowAndColumnSeparators() throws IOException {
+        assertEquals("line\\nbreak", copyText("line\nbreak"));
+        assertEquals("carriage\\rreturn", copyText("carriage\rreturn"));
+        assertEquals("tab\\tbed", copyText("tab\tbed"));
+        assertEquals("\\r\\n", copyText("\r\n"));
+    }
+
+    @Test
+    public void copyTextEscapesBackslashes() throws IOException {
+        assertEquals("C:\\\\temp", copyText("C:\\temp"));
+        // Would be NULL otherwise.
+        assertEquals("\\\\N", copyText("\\N"));
+        // Would be the end of data in psql.
+        assertEquals("\\\\.", copyText("\\."));
+        assertEquals("\\\\n", copyText("\\n"));
+    }
+}
@@ -0,0 +1,165 @@
+package com.rmnsc.persistence;
+
+import com.rmnsc.domain.TodoItem;
+import com.rmnsc.domain.TodoPage;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ * @author Thomas
+ */
+public class TodoDaoOffHeapTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static List<String> descriptions(Iterable<TodoItem> items) {
+        List<String> descriptions = new ArrayList<>();
+        for (TodoItem item : items) {
+            descriptions.add(item.getDescription());
+        }
+        return descriptions;
+    }
+
+    private static List<TodoItem> items(String... descriptions) {
+        List<TodoItem> items = new ArrayList<>();
+        for (String description : descriptions) {
+            items.add(new TodoItem(description));
+        }
+        return items;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void readsBackWhatWasStored() throws IOException {
+        TodoDaoOffHeap dao = new TodoDaoOffHeap(null);
+        dao.store(new TodoItem("first"));
+        dao.storeAll(items("second", "drítte ✓", ""));
+
+        assertEquals(Arrays.asList("first", "second", "drítte ✓", ""), descriptions(dao.getAll()));
+        assertEquals("first", dao.getById(1).getDescription());
+        assertEquals("drítte ✓", dao.getById(3).getDescription());
+    }
+
+    @Test(expected = EmptyResultDataAccessException.class)
+    public void getByIdFailsBeyondTheLastItem() throws IOException {
+        TodoDaoOffHeap dao = new TodoDaoOffHeap(null);
+        dao.store(new TodoItem("only"));
+        dao.getById(2);
+    }
+
+    @Test
+    public void pagesByCursor() throws IOException {
+        TodoDaoOffHeap dao = new TodoDaoOffHeap(null);
+        dao.storeAll(items("a", "b", "c", "d", "e"));
+
+        TodoPage first = dao.getPage(null, 2);
+        assertEquals(Arrays.asList("a", "b"), descriptions(first.getItems()));
+        assertEquals(Long.valueOf(2), first.getNextCursor());
+        TodoPage last = dao.getPage(4L, 2);
+        assertEquals(Arrays.asList("e"), descriptions(last.getItems()));
+        assertNull(last.getNextCursor());
+        assertEquals(0, dao.getPage(5L, 2).getItems().size());
+    }
+
+    @Test
+    public void itemsLargerThanASegmentGetOneOfTheirOwn() throws IOException {
+        TodoDaoOffHeap dao = new TodoDaoOffHeap(null);
+        String large = repeat('x', TodoDaoOffHeap.SEGMENT_SIZE + 1);
+        dao.storeAll(items("before", large, "after"));
+
+        assertEquals(Arrays.asList("before", large, "after"), descriptions(dao.getAll()));
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        Path snapshot = tmp.getRoot().toPath().resolve("todo.snapshot");
+        String large = repeat('ü', TodoDaoOffHeap.SEGMENT_SIZE);
+        List<String> stored = Arrays.asList("buy milk", large, "", "call Bob\nand Alice");
+        TodoDaoOffHeap dao = new TodoDaoOffHeap(snapshot);
+        dao.storeAll(items(stored.toArray(new String[stored.size()])));
+        dao.close();
+
+        TodoDaoOffHeap loaded = new TodoDaoOffHeap(snapshot);
+        assertEquals(stored, descriptions(loaded.getAll()));
+        assertEquals(Arrays.asList("call Bob\nand Alice"), descriptions(loaded.search("alice", 10)));
+        // Stores go on after the loaded items.
+        loaded.store(new TodoItem("new"));
+        assertEquals("new", loaded.getById(5).getDescription());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void storeFailsAfterClose() throws IOException {
+        TodoDaoOffHeap dao = new TodoDaoOffHeap(null);
+        dao.close();
+        dao.store(new TodoItem("lost"));
+    }
+
+    @Test
+    public void rejectsTruncatedSnapshots() throws IOException {
+        Path snapshot = tmp.getRoot().toPath().resolve("todo.snapshot");
+        TodoDaoOffHeap dao = new TodoDaoOffHeap(snapshot);
+        dao.storeAll(items("first", "second"));
+        dao.close();
+        long size = Files.size(snapshot);
+        byte[] complete = Files.readAllBytes(snapshot);
+
+        // Within the last description, within its length, right after the header.
+        for (long truncatedSize : new long[]{size - 1, size - "second".length() - 2, 8}) {
+            Files.write(snapshot, complete);
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+                channel.truncate(truncatedSize);
+            }
+            try {
+                new TodoDaoOffHeap(snapshot);
+                fail("loaded a snapshot truncated to " + truncatedSize + " of " + size + " bytes");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        Path snapshot = tmp.getRoot().toPath().resolve("todo.snapshot");
+        Files.write(snapshot, "not a snapshot".getBytes("UTF-8"));
+        new TodoDaoOffHeap(snapshot);
+    }
+
+    @Test
+    public void searchRanksByOccurrencesThenId() throws IOException {
+        TodoDaoOffHeap dao = new TodoDaoOffHeap(null);
+        dao.storeAll(items(
+                "Apple pie with banana",
+                "banana only",
+                "apple, APPLE and banana",
+                "banana apple",
+                "applesauce and banana"));
+
+        assertEquals(Arrays.asList("apple, APPLE and banana", "Apple pie with banana", "banana apple"),
+                descriptions(dao.search("banana apple", 10)));
+        assertEquals(Arrays.asList("apple, APPLE and banana", "Apple pie with banana"),
+                descriptions(dao.search("apple banana", 2)));
+        assertEquals(0, dao.search("cherry banana", 10).size());
+        assertEquals(0, dao.search(" ,; ", 10).size());
+    }
+}